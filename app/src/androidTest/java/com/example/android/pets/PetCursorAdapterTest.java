@@ -0,0 +1,163 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.widget.FrameLayout;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetDataGenerator;
+import com.example.android.pets.data.PetProvider;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that binding pets to list items allocates nothing on top of what TextView.setText()
+ * itself allocates, once buffers of the view holder grew to the longest text. Pets are bound
+ * from the cursor which {@link PetPageList} delivers to the catalog, which spans several pages.
+ */
+@MediumTest
+public class PetCursorAdapterTest extends ProviderTestCase2<PetProvider> {
+
+    private static final String TAG = PetCursorAdapterTest.class.getSimpleName();
+
+    private static final int PET_COUNT = 500;
+    // Pets are loaded in several pages, so the list delivers cursor over all pages
+    private static final int PAGE_SIZE = 100;
+    private static final long LOAD_TIMEOUT_SECONDS = 30;
+
+    private PetPageList mPageList;
+    private Cursor mCursor;
+
+    public PetCursorAdapterTest() {
+        super(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Isolated database files stay between runs, so pets of previous run are deleted
+        final ContentResolver resolver = getMockContentResolver();
+        resolver.delete(PetEntry.CONTENT_URI, null, null);
+        new PetDataGenerator(42).insertPets(resolver, PET_COUNT,
+                PetDataGenerator.DEFAULT_BATCH_SIZE);
+
+        // List is used on the main thread like in the catalog, all pages stay in its window
+        final CountDownLatch loaded = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                String[] projection = {PetEntry._ID, PetEntry.COLUMN_PET_NAME,
+                        PetEntry.COLUMN_PET_BREED};
+                mPageList = new PetPageList(resolver, projection, PAGE_SIZE, PAGE_SIZE, PET_COUNT);
+                mPageList.setListener(new PetPageList.Listener() {
+                    @Override
+                    public void onPetsLoaded(Cursor cursor, PetPageList.Changes changes) {
+                        mCursor = cursor;
+                        if (cursor.getCount() < PET_COUNT) {
+                            mPageList.loadNextPage();
+                        } else {
+                            loaded.countDown();
+                        }
+                    }
+                });
+            }
+        });
+        assertTrue("Pets were not loaded", loaded.await(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPageList.close();
+            }
+        });
+        super.tearDown();
+    }
+
+    public void testBindAllocatesOnlyInTextViews() {
+        // Views are created and bound on the main thread like in the list, counts are
+        // asserted here because exception on the main thread would crash the app
+        final int[] allocations = new int[2];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Context context = new ContextThemeWrapper(
+                        InstrumentationRegistry.getTargetContext(), R.style.AppTheme);
+                final PetCursorAdapter adapter = new PetCursorAdapter(context, null);
+                adapter.swapCursor(mCursor, null);
+                final PetCursorAdapter.PetViewHolder holder =
+                        adapter.onCreateViewHolder(new FrameLayout(context), 0);
+
+                // Same texts set to same views directly, this is what TextView allocates
+                int nameIndex = mCursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+                int breedIndex = mCursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+                final char[][] names = new char[PET_COUNT][];
+                final char[][] breeds = new char[PET_COUNT][];
+                for (int i = 0; mCursor.moveToPosition(i); i++) {
+                    names[i] = mCursor.getString(nameIndex).toCharArray();
+                    breeds[i] = mCursor.isNull(breedIndex)
+                            ? null : mCursor.getString(breedIndex).toCharArray();
+                }
+                final String emptyBreedText = context.getString(R.string.empty_breed_text);
+
+                Runnable bind = new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < PET_COUNT; i++) {
+                            adapter.onBindViewHolder(holder, i);
+                        }
+                    }
+                };
+                Runnable setTexts = new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < PET_COUNT; i++) {
+                            holder.mNameTextView.setText(names[i], 0, names[i].length);
+                            if (breeds[i] == null || breeds[i].length == 0) {
+                                holder.mSummaryTextView.setText(emptyBreedText);
+                            } else {
+                                holder.mSummaryTextView.setText(breeds[i], 0, breeds[i].length);
+                            }
+                        }
+                    }
+                };
+
+                // Warm up, buffers grow to the longest text and views create their wrappers
+                bind.run();
+                setTexts.run();
+                allocations[0] = countAllocations(bind);
+                allocations[1] = countAllocations(setTexts);
+            }
+        });
+
+        Log.i(TAG, "Binding " + PET_COUNT + " pets allocated " + allocations[0]
+                + " objects, setting their texts directly " + allocations[1]);
+        assertTrue("Bind allocated " + allocations[0] + " objects, TextViews alone "
+                + allocations[1], allocations[0] <= allocations[1]);
+    }
+
+    /**
+     * Returns number of objects allocated on this thread while runnable was running.
+     * Allocation counting is deprecated in favor of allocation tracking in tools, which can't
+     * be asserted from a test, and it still counts allocations of the thread on all versions.
+     */
+    @SuppressWarnings("deprecation")
+    private static int countAllocations(Runnable runnable) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        runnable.run();
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+}
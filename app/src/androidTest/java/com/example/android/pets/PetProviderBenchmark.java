@@ -0,0 +1,474 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import com.example.android.pets.data.PetBatch;
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetDBHelper;
+import com.example.android.pets.data.PetDataGenerator;
+import com.example.android.pets.data.PetProvider;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures throughput and latency of PetProvider for each URI pattern at given table sizes
+ * and writes results to logcat. Provider runs in an isolated context with its own database
+ * files, so database of the app is never touched.
+ *
+ * Run it with:
+ * adb shell am instrument -w -e class com.example.android.pets.PetProviderBenchmark \
+ *     -e rows 10000,100000,1000000 -e ops 1000 -e generate 1000000 \
+ *     com.example.android.pets.test/android.support.test.runner.AndroidJUnitRunner
+ * and read results with: adb logcat -s PetProviderBenchmark
+ */
+@LargeTest
+public class PetProviderBenchmark extends ProviderTestCase2<PetProvider> {
+
+    private static final String LOG_TAG = PetProviderBenchmark.class.getSimpleName();
+
+    // Instrumentation arguments, comma separated table sizes to measure at and number of
+    // measured operations per URI
+    private static final String ARG_ROWS = "rows";
+    private static final String ARG_OPS = "ops";
+    // Number of pets generated at once when generation is measured
+    private static final String ARG_GENERATE = "generate";
+
+    private static final int[] DEFAULT_ROWS = {10000, 200000};
+    private static final int DEFAULT_OPS = 1000;
+    private static final int DEFAULT_GENERATE = 1000000;
+    // Number of rows inserted by one bulkInsert() while table is filled
+    private static final int FILL_BATCH_SIZE = 1000;
+    private static final int PAGE_SIZE = 100;
+    // Number of pets in one batch when ContentValues are compared with packed batches
+    private static final int BATCH_COMPARE_SIZE = 10000;
+    private static final int BATCH_COMPARE_RUNS = 5;
+
+    // Search queries, prefixes of common names and breeds
+    private static final String[] SEARCH_QUERIES = {"Max", "Bel", "Cha", "Lab", "Ret", "Tab",
+            "Gold", "Sia"};
+
+    // Operations by selection and pages without index touch many pets, so only this fraction
+    // of operations is measured
+    private static final int SELECTION_OPS_DIVISOR = 10;
+    // Pets of one name and gender, or of one name and weight, which is a small group
+    private static final String NAME_GENDER_SELECTION = PetEntry.COLUMN_PET_NAME + " = ? AND "
+            + PetEntry.COLUMN_PET_GENDER + " = ?";
+    private static final String NAME_WEIGHT_SELECTION = PetEntry.COLUMN_PET_NAME + " = ? AND "
+            + PetEntry.COLUMN_PET_WEIGHT + " = ?";
+
+    // Short prefixes typed into search box, they match most pets
+    private static final String[] SEARCH_PREFIXES = {"Ma", "Be", "Ch", "La", "Ta", "Go"};
+    // Search page has to be ready within one frame at this table size
+    private static final int SEARCH_FRAME_ROWS = 200000;
+    private static final long FRAME_NANOS = 16000000L;
+
+    // Fixed seeds, so runs on different builds work with same data
+    private final Random mRandom = new Random(42);
+    private final PetDataGenerator mGenerator = new PetDataGenerator(42);
+
+    public PetProviderBenchmark() {
+        super(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+    }
+
+    public void testProvider() {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        int[] rows = DEFAULT_ROWS;
+        String rowsArgument = arguments.getString(ARG_ROWS);
+        if (rowsArgument != null) {
+            String[] sizes = rowsArgument.split(",");
+            rows = new int[sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+                rows[i] = Integer.parseInt(sizes[i].trim());
+            }
+        }
+        String opsArgument = arguments.getString(ARG_OPS);
+        int ops = opsArgument != null ? Integer.parseInt(opsArgument) : DEFAULT_OPS;
+
+        // Isolated database files stay after the run, so pets of previous run are deleted
+        ContentResolver resolver = getMockContentResolver();
+        for (int rowCount : rows) {
+            resolver.delete(PetEntry.CONTENT_URI, null, null);
+            Log.i(LOG_TAG, "Table size " + rowCount + ", " + ops + " operations per URI");
+            run(resolver, rowCount, ops);
+        }
+        resolver.delete(PetEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * Measures generation of a large number of pets in default batches, like the catalog
+     * generates them
+     */
+    public void testGeneratePets() {
+        String generateArgument = InstrumentationRegistry.getArguments().getString(ARG_GENERATE);
+        int count = generateArgument != null ? Integer.parseInt(generateArgument)
+                : DEFAULT_GENERATE;
+
+        ContentResolver resolver = getMockContentResolver();
+        resolver.delete(PetEntry.CONTENT_URI, null, null);
+        long start = System.nanoTime();
+        int inserted = new PetDataGenerator(42).insertPets(resolver, count,
+                PetDataGenerator.DEFAULT_BATCH_SIZE);
+        long elapsed = System.nanoTime() - start;
+        assertEquals(count, inserted);
+        Log.i(LOG_TAG, String.format("%-40s %10.1f rows/s  total %8.3f s",
+                "generate pets (" + count + " rows)", count * 1e9 / Math.max(elapsed, 1),
+                elapsed / 1e9));
+        resolver.delete(PetEntry.CONTENT_URI, null, null);
+    }
+
+    private void run(ContentResolver resolver, int rowCount, int ops) {
+        // Fill the table, each bulkInsert() of generated pets is one measured operation
+        long[] latencies = new long[(rowCount + FILL_BATCH_SIZE - 1) / FILL_BATCH_SIZE];
+        for (int i = 0; i < latencies.length; i++) {
+            int size = Math.min(FILL_BATCH_SIZE, rowCount - i * FILL_BATCH_SIZE);
+            long start = System.nanoTime();
+            mGenerator.insertPets(resolver, size, size);
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("insert generated pets (" + FILL_BATCH_SIZE + " rows)", latencies);
+
+        long[] ids = queryIds(resolver);
+        if (ids.length == 0) {
+            return;
+        }
+
+        latencies = new long[ops];
+        for (int i = 0; i < ops; i++) {
+            Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, randomId(ids));
+            long start = System.nanoTime();
+            consume(resolver.query(uri, null, null, null, null));
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("query pets/#", latencies);
+
+        report("query pets page of " + PAGE_SIZE + " by _id",
+                measurePages(resolver, PetEntry.CONTENT_URI, PetEntry._ID, ops));
+        report("query pets/summary page of " + PAGE_SIZE + " by name",
+                measurePages(resolver, PetEntry.CONTENT_SUMMARY_URI, PetEntry.COLUMN_PET_NAME, ops));
+
+        // Same name ordered pages as summary ones, read with same SQL once from the covering
+        // index SQLite picks and once without any index. Plain pets uri sorted by name would
+        // use the covering index as well, so only NOT INDEXED shows what the index saves.
+        SQLiteDatabase database = SQLiteDatabase.openDatabase(getMockContext()
+                .getDatabasePath(PetDBHelper.DATABASE_NAME).getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            report("pets page of " + PAGE_SIZE + " by name, indexed",
+                    measureSqlPages(database, PetEntry.TABLE_NAME, ops));
+            report("pets page of " + PAGE_SIZE + " by name, NOT INDEXED",
+                    measureSqlPages(database, PetEntry.TABLE_NAME + " NOT INDEXED",
+                            Math.max(1, ops / SELECTION_OPS_DIVISOR)));
+        } finally {
+            database.close();
+        }
+
+        latencies = new long[ops];
+        for (int i = 0; i < ops; i++) {
+            String query = SEARCH_QUERIES[mRandom.nextInt(SEARCH_QUERIES.length)];
+            long start = System.nanoTime();
+            consume(resolver.query(PetEntry.buildSearchUri(query), null, null, null, null));
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("query pets/search/*", latencies);
+
+        // Page of search results for short prefix, as shown while user types
+        latencies = new long[ops];
+        for (int i = 0; i < ops; i++) {
+            String prefix = SEARCH_PREFIXES[mRandom.nextInt(SEARCH_PREFIXES.length)];
+            long start = System.nanoTime();
+            consume(resolver.query(PetEntry.buildSearchUri(prefix, PAGE_SIZE), null, null, null,
+                    null));
+            latencies[i] = System.nanoTime() - start;
+        }
+        long searchP50 = report("query pets/search/* page of " + PAGE_SIZE, latencies);
+        if (rowCount >= SEARCH_FRAME_ROWS) {
+            assertTrue("Search page takes " + searchP50 / 1e6 + " ms at " + rowCount + " rows",
+                    searchP50 < FRAME_NANOS);
+        }
+
+        latencies = new long[ops];
+        for (int i = 0; i < ops; i++) {
+            long start = System.nanoTime();
+            consume(resolver.query(PetStatsEntry.CONTENT_URI, null, null, null, null));
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("query pets/stats", latencies);
+
+        latencies = new long[ops];
+        for (int i = 0; i < ops; i++) {
+            Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, randomId(ids));
+            ContentValues values = randomPet();
+            long start = System.nanoTime();
+            resolver.update(uri, values, null, null);
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("update pets/#", latencies);
+
+        int selectionOps = Math.max(1, ops / SELECTION_OPS_DIVISOR);
+        latencies = new long[selectionOps];
+        for (int i = 0; i < selectionOps; i++) {
+            ContentValues values = randomPet();
+            String[] selectionArgs = {values.getAsString(PetEntry.COLUMN_PET_NAME),
+                    values.getAsString(PetEntry.COLUMN_PET_GENDER)};
+            long start = System.nanoTime();
+            consume(resolver.query(PetEntry.CONTENT_URI, null, NAME_GENDER_SELECTION,
+                    selectionArgs, PetEntry.COLUMN_PET_WEIGHT + " DESC"));
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("query pets by name and gender, by weight", latencies);
+
+        latencies = new long[selectionOps];
+        for (int i = 0; i < selectionOps; i++) {
+            ContentValues values = randomPet();
+            String[] selectionArgs = {values.getAsString(PetEntry.COLUMN_PET_NAME),
+                    values.getAsString(PetEntry.COLUMN_PET_WEIGHT)};
+            // Weight of the pets moves by one kg, so they stay in same groups
+            ContentValues weight = new ContentValues();
+            weight.put(PetEntry.COLUMN_PET_WEIGHT,
+                    values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT) + 1);
+            long start = System.nanoTime();
+            resolver.update(PetEntry.CONTENT_URI, weight, NAME_WEIGHT_SELECTION, selectionArgs);
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("update pets by name and weight", latencies);
+
+        latencies = new long[ops];
+        for (int i = 0; i < ops; i++) {
+            ContentValues values = randomPet();
+            long start = System.nanoTime();
+            resolver.insert(PetEntry.CONTENT_URI, values);
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("insert pets", latencies);
+
+        compareBatches(resolver);
+
+        // Every pet is deleted only once, so number of deletes is limited by size of the table
+        latencies = new long[Math.min(ops, ids.length)];
+        for (int i = 0; i < latencies.length; i++) {
+            Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, ids[i]);
+            long start = System.nanoTime();
+            resolver.delete(uri, null, null);
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("delete pets/#", latencies);
+
+        latencies = new long[selectionOps];
+        for (int i = 0; i < selectionOps; i++) {
+            ContentValues values = randomPet();
+            String[] selectionArgs = {values.getAsString(PetEntry.COLUMN_PET_NAME),
+                    values.getAsString(PetEntry.COLUMN_PET_WEIGHT)};
+            long start = System.nanoTime();
+            resolver.delete(PetEntry.CONTENT_URI, NAME_WEIGHT_SELECTION, selectionArgs);
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("delete pets by name and weight", latencies);
+    }
+
+    /**
+     * Inserts same generated pets with bulkInsert() of ContentValues and with packed
+     * PetBatch, in alternating runs, and reports latency of both. Batches are built before
+     * they are measured, so only parceling, validation and writes are compared.
+     */
+    private void compareBatches(ContentResolver resolver) {
+        ContentValues[] values = new ContentValues[BATCH_COMPARE_SIZE];
+        PetBatch batch = new PetBatch(BATCH_COMPARE_SIZE);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = randomPet();
+            batch.add(values[i].getAsString(PetEntry.COLUMN_PET_NAME),
+                    values[i].getAsString(PetEntry.COLUMN_PET_BREED),
+                    values[i].getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                    values[i].getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+        }
+
+        long[] valuesLatencies = new long[BATCH_COMPARE_RUNS];
+        long[] batchLatencies = new long[BATCH_COMPARE_RUNS];
+        for (int i = 0; i < BATCH_COMPARE_RUNS; i++) {
+            long start = System.nanoTime();
+            resolver.bulkInsert(PetEntry.CONTENT_URI, values);
+            valuesLatencies[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            batch.insert(resolver);
+            batchLatencies[i] = System.nanoTime() - start;
+        }
+        report("bulkInsert ContentValues (" + BATCH_COMPARE_SIZE + " rows)", valuesLatencies);
+        report("call insert_pets PetBatch (" + BATCH_COMPARE_SIZE + " rows)", batchLatencies);
+    }
+
+    /**
+     * Reads pages of _id, name and breed one after another like catalog does,
+     * from start again at the end
+     * @return latencies of page queries
+     */
+    private long[] measurePages(ContentResolver resolver, Uri contentUri, String orderBy,
+                                int ops) {
+        long[] latencies = new long[ops];
+        String[] projection = {PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED};
+        boolean byName = orderBy.equals(PetEntry.COLUMN_PET_NAME);
+        String afterName = null;
+        long afterId = -1;
+        for (int i = 0; i < ops; i++) {
+            Uri.Builder builder = contentUri.buildUpon()
+                    .appendQueryParameter(PetEntry.QUERY_PARAM_ORDER_BY, orderBy)
+                    .appendQueryParameter(PetEntry.QUERY_PARAM_LIMIT, String.valueOf(PAGE_SIZE));
+            if (afterId >= 0) {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAM_AFTER_ID, String.valueOf(afterId));
+                if (byName) {
+                    builder.appendQueryParameter(PetEntry.QUERY_PARAM_AFTER_NAME, afterName);
+                }
+            }
+            long start = System.nanoTime();
+            Cursor cursor = resolver.query(builder.build(), projection, null, null, null);
+            try {
+                int count = readRows(cursor);
+                latencies[i] = System.nanoTime() - start;
+                if (count < PAGE_SIZE) {
+                    afterId = -1;
+                } else {
+                    cursor.moveToLast();
+                    afterId = cursor.getLong(0);
+                    afterName = cursor.getString(1);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Reads pages of _id, name and breed by name from given table expression directly from
+     * database, with the keyset condition the provider uses, from start again at the end
+     * @return latencies of page queries
+     */
+    private static long[] measureSqlPages(SQLiteDatabase database, String table, int ops) {
+        long[] latencies = new long[ops];
+        String columns = "SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+                + PetEntry.COLUMN_PET_BREED + " FROM " + table;
+        String order = " ORDER BY " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID
+                + " LIMIT " + PAGE_SIZE;
+        String firstPage = columns + order;
+        String nextPage = columns + " WHERE " + PetEntry.COLUMN_PET_NAME + " >= ? AND ("
+                + PetEntry.COLUMN_PET_NAME + " > ? OR " + PetEntry._ID + " > ?)" + order;
+        String[] afterArgs = null;
+        for (int i = 0; i < ops; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = afterArgs == null ? database.rawQuery(firstPage, null)
+                    : database.rawQuery(nextPage, afterArgs);
+            try {
+                int count = readRows(cursor);
+                latencies[i] = System.nanoTime() - start;
+                if (count < PAGE_SIZE) {
+                    afterArgs = null;
+                } else {
+                    cursor.moveToLast();
+                    afterArgs = new String[] {cursor.getString(1), cursor.getString(1),
+                            cursor.getString(0)};
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return latencies;
+    }
+
+    private ContentValues randomPet() {
+        ContentValues values = new ContentValues();
+        mGenerator.nextPet(values);
+        return values;
+    }
+
+    private long randomId(long[] ids) {
+        return ids[mRandom.nextInt(ids.length)];
+    }
+
+    /**
+     * Returns ids of all pets in the table, in random order
+     */
+    private long[] queryIds(ContentResolver resolver) {
+        Cursor cursor = resolver.query(PetEntry.CONTENT_URI, new String[] {PetEntry._ID},
+                null, null, null);
+        if (cursor == null) {
+            return new long[0];
+        }
+        long[] ids = new long[cursor.getCount()];
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        for (int i = ids.length - 1; i > 0; i--) {
+            int j = mRandom.nextInt(i + 1);
+            long id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Reads all rows of the cursor, so query is measured with filling of its window,
+     * and closes it
+     * @return number of rows in the cursor
+     */
+    private static int consume(Cursor cursor) {
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return readRows(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads all rows of the cursor without closing it
+     * @return number of rows in the cursor
+     */
+    private static int readRows(Cursor cursor) {
+        int count = 0;
+        while (cursor.moveToNext()) {
+            cursor.getLong(0);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Logs operations per second and p50/p99 latency of measured operations
+     * @return p50 latency in nanoseconds
+     */
+    private static long report(String name, long[] latencies) {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        Arrays.sort(latencies);
+        long p50 = latencies[(latencies.length - 1) / 2];
+        long p99 = latencies[(latencies.length - 1) * 99 / 100];
+        double opsPerSecond = latencies.length * 1e9 / Math.max(total, 1);
+        Log.i(LOG_TAG, String.format("%-40s %10.1f ops/s  p50 %8.3f ms  p99 %8.3f ms",
+                name, opsPerSecond, p50 / 1e6, p99 / 1e6));
+        return p50;
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.support.test.filters.MediumTest;
+import android.test.ProviderTestCase2;
+
+import com.example.android.pets.R;
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads change journal of the provider with changes?since=N before and after compaction, for
+ * consumers inside the kept window and for consumers behind it.
+ */
+@MediumTest
+public class PetChangeJournalTest extends ProviderTestCase2<PetProvider> {
+
+    // Writes of a test, including deletes of pets left by previous run, stay below the
+    // compaction interval of the provider, so only the test compacts the journal
+    private static final int INSERT_COUNT = 150;
+    private static final int UPDATE_COUNT = 60;
+    private static final int DELETE_COUNT = 30;
+    // Number of newest sequence numbers kept by compaction in the test
+    private static final int KEEP_ENTRIES = 100;
+
+    private ContentResolver mResolver;
+    private PetDBHelper mDbHelper;
+
+    public PetChangeJournalTest() {
+        super(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Isolated database files stay between runs, so pets of previous run are deleted
+        mResolver = getMockContentResolver();
+        mResolver.delete(PetEntry.CONTENT_URI, null, null);
+        // Helper opens database of the provider with same configuration as the provider
+        Resources res = getMockContext().getResources();
+        mDbHelper = new PetDBHelper(getMockContext(),
+                res.getBoolean(R.bool.config_db_write_ahead_logging),
+                res.getInteger(R.integer.config_db_wal_autocheckpoint_pages),
+                res.getInteger(R.integer.config_db_wal_size_limit_bytes));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    public void testChangesSinceBeforeAndAfterCompaction() {
+        long start = lastSequence();
+        List<Long> ids = writePets();
+        int writeCount = INSERT_COUNT + UPDATE_COUNT + DELETE_COUNT;
+
+        // Every write is in the journal, in order of the writes
+        List<long[]> changes = queryChanges(start);
+        assertEquals(writeCount, changes.size());
+        assertChange(changes.get(0), ids.get(0), PetChangeEntry.OPERATION_INSERT);
+        assertChange(changes.get(INSERT_COUNT), ids.get(0), PetChangeEntry.OPERATION_UPDATE);
+        assertChange(changes.get(writeCount - 1), ids.get(DELETE_COUNT - 1),
+                PetChangeEntry.OPERATION_DELETE);
+        long last = changes.get(writeCount - 1)[0];
+        // Consumer inside the window, it has seen all but the newest few changes
+        long recent = changes.get(writeCount - KEEP_ENTRIES / 2)[0];
+        List<long[]> recentChanges = queryChanges(recent);
+
+        mDbHelper.compactChangeJournal(mDbHelper.getWritableDatabase(), KEEP_ENTRIES);
+
+        // Consumer inside the window gets same changes as before compaction
+        assertSameChanges(recentChanges, queryChanges(recent));
+        // Consumer behind the window gets resync entry at the newest dropped sequence and then
+        // all kept changes
+        long marker = last - KEEP_ENTRIES;
+        List<long[]> behind = queryChanges(start);
+        assertEquals(KEEP_ENTRIES + 1, behind.size());
+        assertEquals(marker, behind.get(0)[0]);
+        assertEquals(PetChangeEntry.OPERATION_RESYNC, behind.get(0)[2]);
+        assertSameChanges(changes.subList(writeCount - KEEP_ENTRIES, writeCount),
+                behind.subList(1, behind.size()));
+        // Consumer which saw the newest dropped change doesn't need resync
+        assertSameChanges(behind.subList(1, behind.size()), queryChanges(marker));
+
+        // Compaction without new changes drops nothing
+        assertEquals(0, mDbHelper.compactChangeJournal(mDbHelper.getWritableDatabase(),
+                KEEP_ENTRIES));
+        assertSameChanges(behind, queryChanges(start));
+
+        // After more changes the marker moves on, consumer at the old marker is now behind it
+        writePets();
+        long newLast = lastSequence();
+        mDbHelper.compactChangeJournal(mDbHelper.getWritableDatabase(), KEEP_ENTRIES);
+        List<long[]> afterMarker = queryChanges(marker);
+        assertEquals(KEEP_ENTRIES + 1, afterMarker.size());
+        assertEquals(newLast - KEEP_ENTRIES, afterMarker.get(0)[0]);
+        assertEquals(PetChangeEntry.OPERATION_RESYNC, afterMarker.get(0)[2]);
+        assertSameChanges(afterMarker, queryChanges(start));
+        assertEquals(newLast, afterMarker.get(afterMarker.size() - 1)[0]);
+    }
+
+    /**
+     * Inserts pets, updates the first of them and deletes the first of them
+     * @return ids of inserted pets, in order of insert
+     */
+    private List<Long> writePets() {
+        List<Long> ids = new ArrayList<Long>();
+        PetDataGenerator generator = new PetDataGenerator(42);
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < INSERT_COUNT; i++) {
+            generator.nextPet(values);
+            ids.add(ContentUris.parseId(mResolver.insert(PetEntry.CONTENT_URI, values)));
+        }
+        for (int i = 0; i < UPDATE_COUNT; i++) {
+            generator.nextPet(values);
+            mResolver.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, ids.get(i)), values,
+                    null, null);
+        }
+        for (int i = 0; i < DELETE_COUNT; i++) {
+            mResolver.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, ids.get(i)), null,
+                    null);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns sequence of the newest journal entry, 0 if journal is empty
+     */
+    private long lastSequence() {
+        Cursor cursor = mResolver.query(PetChangeEntry.CONTENT_URI,
+                new String[] {PetChangeEntry.COLUMN_SEQUENCE}, null, null,
+                PetChangeEntry.COLUMN_SEQUENCE + " DESC");
+        assertNotNull(cursor);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns sequence, pet id and operation of all entries after given sequence
+     */
+    private List<long[]> queryChanges(long since) {
+        Cursor cursor = mResolver.query(PetChangeEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(PetChangeEntry.QUERY_PARAM_SINCE,
+                                String.valueOf(since)).build(),
+                new String[] {PetChangeEntry.COLUMN_SEQUENCE, PetChangeEntry.COLUMN_PET_ID,
+                        PetChangeEntry.COLUMN_OPERATION}, null, null, null);
+        assertNotNull(cursor);
+        List<long[]> changes = new ArrayList<long[]>();
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(new long[] {cursor.getLong(0), cursor.getLong(1), cursor.getLong(2)});
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    private static void assertChange(long[] change, long petId, int operation) {
+        assertEquals(petId, change[1]);
+        assertEquals(operation, change[2]);
+    }
+
+    private static void assertSameChanges(List<long[]> expected, List<long[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            for (int column = 0; column < 3; column++) {
+                assertEquals("Change " + i, expected.get(i)[column], actual.get(i)[column]);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.support.test.filters.MediumTest;
+import android.test.ProviderTestCase2;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exports pets through the provider and imports them back with {@link PetImporter}, in both
+ * formats, and checks that same pets come back. Names which need quoting, names over several
+ * lines and null and empty breeds are exported next to generated pets, and they are imported
+ * in batches which split the stream in different places.
+ */
+@MediumTest
+public class PetImportExportTest extends ProviderTestCase2<PetProvider> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int GENERATED_COUNT = 15;
+    // Batch sizes of import: one pet, batches dividing all pets, one pet short of all pets,
+    // all pets and more than all pets
+    private static final int[] BATCH_SIZES = {1, 7, 20, 21, 22};
+
+    private ContentResolver mResolver;
+
+    public PetImportExportTest() {
+        super(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Isolated database files stay between runs, so pets of previous run are deleted
+        mResolver = getMockContentResolver();
+        mResolver.delete(PetEntry.CONTENT_URI, null, null);
+
+        insertPet("Max, \"the\" dog", "Labrador Retriever");
+        insertPet("Bella\nof two lines", "Beagle");
+        insertPet("Charlie\r\nof Windows lines", "\"Tabby\"");
+        insertPet("Luna", null);
+        insertPet("Lucy", "");
+        insertPet(",", ",");
+        PetDataGenerator generator = new PetDataGenerator(42);
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < GENERATED_COUNT; i++) {
+            generator.nextPet(values);
+            mResolver.insert(PetEntry.CONTENT_URI, values);
+        }
+    }
+
+    public void testCsvRoundTrip() throws IOException {
+        assertRoundTrip(PetEntry.CSV_TYPE);
+    }
+
+    public void testNdjsonRoundTrip() throws IOException {
+        assertRoundTrip(PetEntry.NDJSON_TYPE);
+    }
+
+    public void testCsvEmptyFieldIsNullAndQuotedEmptyFieldIsEmpty() throws IOException {
+        String csv = "name,breed,gender,weight\r\nLuna,,1,5\r\nLucy,\"\",2,6\r\n";
+        assertEquals(2, PetImporter.importPets(mResolver, stream(csv), PetEntry.CSV_TYPE,
+                PetImporter.DEFAULT_BATCH_SIZE));
+
+        List<List<Object>> pets = queryPets();
+        List<Object> luna = pets.get(pets.size() - 2);
+        List<Object> lucy = pets.get(pets.size() - 1);
+        assertEquals("Luna", luna.get(0));
+        assertNull(luna.get(1));
+        assertEquals("Lucy", lucy.get(0));
+        assertEquals("", lucy.get(1));
+    }
+
+    /**
+     * Exports all pets in given format, and for every batch size deletes them and imports
+     * them back
+     */
+    private void assertRoundTrip(String mimeType) throws IOException {
+        List<List<Object>> pets = queryPets();
+        byte[] exported = export(mimeType);
+        for (int batchSize : BATCH_SIZES) {
+            mResolver.delete(PetEntry.CONTENT_URI, null, null);
+            int imported = PetImporter.importPets(mResolver, new ByteArrayInputStream(exported),
+                    mimeType, batchSize);
+            assertEquals("Imported pets in batches of " + batchSize, pets.size(), imported);
+            assertEquals("Pets imported in batches of " + batchSize, pets, queryPets());
+        }
+    }
+
+    private void insertPet(String name, String breed) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 3);
+        mResolver.insert(PetEntry.CONTENT_URI, values);
+    }
+
+    private byte[] export(String mimeType) throws IOException {
+        AssetFileDescriptor file = mResolver.openTypedAssetFileDescriptor(PetEntry.CONTENT_URI,
+                mimeType, null);
+        assertNotNull("Pets can't be exported as " + mimeType, file);
+        InputStream in = file.createInputStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(UTF_8));
+    }
+
+    /**
+     * Returns name, breed, gender and weight of all pets in order of their ids, null breed
+     * stays null so it differs from empty one
+     */
+    private List<List<Object>> queryPets() {
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, new String[] {
+                PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER,
+                PetEntry.COLUMN_PET_WEIGHT}, null, null, PetEntry._ID);
+        assertNotNull(cursor);
+        List<List<Object>> pets = new ArrayList<List<Object>>();
+        try {
+            while (cursor.moveToNext()) {
+                pets.add(Arrays.<Object>asList(cursor.getString(0),
+                        cursor.isNull(1) ? null : cursor.getString(1), cursor.getInt(2),
+                        cursor.getInt(3)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return pets;
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades populated database of version 1 through all migration steps and checks that
+ * filters on name, breed and gender with weight use indexes afterwards and got faster.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class PetMigrationsTest {
+
+    private static final String TAG = PetMigrationsTest.class.getSimpleName();
+
+    // Number of pets in the upgraded database
+    private static final int PET_COUNT = 100000;
+    // Number of runs of each measured query, median of them is compared
+    private static final int QUERY_RUNS = 11;
+
+    // Pets table as version 1 of the app created it
+    private static final String SQL_CREATE_V1_PETS_TABLE = "CREATE TABLE " + PetEntry.TABLE_NAME
+            + " (" + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
+            + PetEntry.COLUMN_PET_BREED + " TEXT, "
+            + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+            + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
+
+    // Filters indexes were added for, with rare values so index has to skip most of the table
+    private static final String[] QUERIES = {
+            "SELECT * FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_NAME + " = ?",
+            "SELECT * FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_BREED + " = ?",
+            "SELECT * FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_GENDER
+                    + " = ? AND " + PetEntry.COLUMN_PET_WEIGHT + " BETWEEN ? AND ?"};
+    private static final String[][] QUERY_ARGS = {{"Zoe"}, {"Bengal"},
+            {String.valueOf(PetEntry.GENDER_UNKNOWN), "30", "35"}};
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        // Database files of the test get a prefix, so database of the app is never touched
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "test.");
+        mContext.deleteDatabase(PetDBHelper.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(PetDBHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion1IndexesFilters() {
+        long[] before;
+        SQLiteDatabase v1 = mContext.openOrCreateDatabase(PetDBHelper.DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        try {
+            v1.execSQL(SQL_CREATE_V1_PETS_TABLE);
+            insertPets(v1, PET_COUNT);
+            v1.setVersion(1);
+            for (int i = 0; i < QUERIES.length; i++) {
+                String plan = queryPlan(v1, QUERIES[i], QUERY_ARGS[i]);
+                assertTrue(plan, plan.contains("SCAN"));
+            }
+            before = measureQueries(v1);
+        } finally {
+            v1.close();
+        }
+
+        PetDBHelper helper = new PetDBHelper(mContext);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals(PetMigrations.latestVersion(), db.getVersion());
+            assertEquals(PET_COUNT, DatabaseUtils.queryNumEntries(db, PetEntry.TABLE_NAME));
+
+            for (int i = 0; i < QUERIES.length; i++) {
+                String plan = queryPlan(db, QUERIES[i], QUERY_ARGS[i]);
+                assertFalse(plan, plan.contains("SCAN"));
+                assertTrue(plan, plan.contains("INDEX"));
+            }
+            long[] after = measureQueries(db);
+            for (int i = 0; i < QUERIES.length; i++) {
+                Log.i(TAG, String.format("%s: %.3f ms before, %.3f ms after upgrade", QUERIES[i],
+                        before[i] / 1e6, after[i] / 1e6));
+                assertTrue(QUERIES[i], after[i] < before[i]);
+            }
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Inserts generated pets in one transaction
+     */
+    private static void insertPets(SQLiteDatabase db, int count) {
+        PetDataGenerator generator = new PetDataGenerator(42);
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                generator.nextPet(values);
+                db.insertOrThrow(PetEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns median latency in nanoseconds of each query, all its rows are read
+     */
+    private static long[] measureQueries(SQLiteDatabase db) {
+        long[] medians = new long[QUERIES.length];
+        long[] latencies = new long[QUERY_RUNS];
+        for (int i = 0; i < QUERIES.length; i++) {
+            for (int run = 0; run < QUERY_RUNS; run++) {
+                long start = System.nanoTime();
+                Cursor cursor = db.rawQuery(QUERIES[i], QUERY_ARGS[i]);
+                try {
+                    while (cursor.moveToNext()) {
+                        cursor.getLong(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                latencies[run] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies);
+            medians[i] = latencies[QUERY_RUNS / 2];
+        }
+        return medians;
+    }
+
+    /**
+     * Returns details of all steps of query plan, separated by semicolons
+     */
+    static String queryPlan(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            StringBuilder plan = new StringBuilder();
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append("; ");
+                }
+                plan.append(cursor.getString(detail));
+            }
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+}
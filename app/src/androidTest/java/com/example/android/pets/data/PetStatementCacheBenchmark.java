@@ -0,0 +1,136 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares single row insert, update by id and delete by id through SQLiteDatabase methods
+ * with the same operations through PetStatementCache and logs time of one operation for both.
+ * Operations of each run are in one transaction, so commits don't hide the cost of building
+ * and compiling SQL which the cache saves.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class PetStatementCacheBenchmark {
+
+    private static final String TAG = PetStatementCacheBenchmark.class.getSimpleName();
+
+    // Number of measured operations in one run
+    private static final int OPS = 5000;
+
+    private Context mContext;
+    private PetDBHelper mHelper;
+    private SQLiteDatabase mDatabase;
+    private PetStatementCache mCache;
+    private final PetDataGenerator mGenerator = new PetDataGenerator(42);
+
+    @Before
+    public void setUp() {
+        // Database files of the benchmark get a prefix, so database of the app is never touched
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                "test.");
+        mContext.deleteDatabase(PetDBHelper.DATABASE_NAME);
+        mHelper = new PetDBHelper(mContext);
+        mDatabase = mHelper.getWritableDatabase();
+        mCache = new PetStatementCache(mDatabase);
+    }
+
+    @After
+    public void tearDown() {
+        mCache.close();
+        mHelper.close();
+        mContext.deleteDatabase(PetDBHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void compareSingleRowWrites() {
+        ContentValues[] pets = new ContentValues[OPS];
+        for (int i = 0; i < OPS; i++) {
+            pets[i] = new ContentValues();
+            mGenerator.nextPet(pets[i]);
+        }
+
+        // Ids of pets inserted by each run, updated and deleted by both runs
+        long[] databaseIds = new long[OPS];
+        long[] cacheIds = new long[OPS];
+
+        mDatabase.beginTransaction();
+        long start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) {
+            databaseIds[i] = mDatabase.insert(PetEntry.TABLE_NAME, null, pets[i]);
+        }
+        long databaseNanos = endTransaction(start);
+        mDatabase.beginTransaction();
+        start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) {
+            cacheIds[i] = mCache.insert(pets[i]);
+        }
+        report("insert", databaseNanos, endTransaction(start));
+        assertEquals(2 * OPS, DatabaseUtils.queryNumEntries(mDatabase, PetEntry.TABLE_NAME));
+
+        ContentValues weight = new ContentValues();
+        mDatabase.beginTransaction();
+        start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) {
+            weight.put(PetEntry.COLUMN_PET_WEIGHT, i);
+            mDatabase.update(PetEntry.TABLE_NAME, weight, PetEntry._ID + "=?",
+                    new String[] {String.valueOf(databaseIds[i])});
+        }
+        databaseNanos = endTransaction(start);
+        mDatabase.beginTransaction();
+        start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) {
+            weight.put(PetEntry.COLUMN_PET_WEIGHT, i);
+            mCache.updateById(cacheIds[i], weight);
+        }
+        report("update by id", databaseNanos, endTransaction(start));
+
+        mDatabase.beginTransaction();
+        start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) {
+            mDatabase.delete(PetEntry.TABLE_NAME, PetEntry._ID + "=?",
+                    new String[] {String.valueOf(databaseIds[i])});
+        }
+        databaseNanos = endTransaction(start);
+        mDatabase.beginTransaction();
+        start = System.nanoTime();
+        for (int i = 0; i < OPS; i++) {
+            mCache.deleteById(cacheIds[i]);
+        }
+        report("delete by id", databaseNanos, endTransaction(start));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, PetEntry.TABLE_NAME));
+    }
+
+    /**
+     * Commits current transaction
+     * @return nanoseconds since start, without the commit
+     */
+    private long endTransaction(long start) {
+        long nanos = System.nanoTime() - start;
+        mDatabase.setTransactionSuccessful();
+        mDatabase.endTransaction();
+        return nanos;
+    }
+
+    private static void report(String name, long databaseNanos, long cacheNanos) {
+        Log.i(TAG, String.format("%-14s database %7.2f us/op  cached %7.2f us/op  saved %4.1f%%",
+                name, databaseNanos / 1e3 / OPS, cacheNanos / 1e3 / OPS,
+                100.0 * (databaseNanos - cacheNanos) / databaseNanos));
+    }
+}
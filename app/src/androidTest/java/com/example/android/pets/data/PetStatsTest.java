@@ -0,0 +1,183 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.filters.MediumTest;
+import android.test.ProviderTestCase2;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares statistics per gender and per breed, which triggers keep in summary tables, with
+ * statistics computed by full scan of pets after inserts, updates and deletes of all kinds.
+ */
+@MediumTest
+public class PetStatsTest extends ProviderTestCase2<PetProvider> {
+
+    private static final int PET_COUNT = 2000;
+    // Number of pets changed by each kind of single pet update and delete
+    private static final int CHANGE_COUNT = 300;
+
+    private ContentResolver mResolver;
+    private final Random mRandom = new Random(42);
+    private final PetDataGenerator mGenerator = new PetDataGenerator(42);
+
+    public PetStatsTest() {
+        super(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Isolated database files stay between runs, so pets of previous run are deleted
+        mResolver = getMockContentResolver();
+        mResolver.delete(PetEntry.CONTENT_URI, null, null);
+    }
+
+    public void testStatsMatchFullScanAfterWrites() {
+        mGenerator.insertPets(mResolver, PET_COUNT, PetDataGenerator.DEFAULT_BATCH_SIZE);
+        assertStatsMatchPets();
+
+        List<Long> ids = queryIds();
+        ContentValues values = new ContentValues();
+        // Every column which statistics depend on changes
+        for (int i = 0; i < CHANGE_COUNT; i++) {
+            mGenerator.nextPet(values);
+            mResolver.update(randomPet(ids), values, null, null);
+        }
+        // Only weight changes, pet stays in same gender and breed rows
+        values.clear();
+        for (int i = 0; i < CHANGE_COUNT; i++) {
+            values.put(PetEntry.COLUMN_PET_WEIGHT, 1 + mRandom.nextInt(50));
+            mResolver.update(randomPet(ids), values, null, null);
+        }
+        // Breed changes to unknown one
+        values.clear();
+        values.putNull(PetEntry.COLUMN_PET_BREED);
+        mResolver.update(PetEntry.CONTENT_URI, values, PetEntry.COLUMN_PET_BREED + " = ?",
+                new String[] {"Beagle"});
+        // Many pets move to another gender at once
+        values.clear();
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+        mResolver.update(PetEntry.CONTENT_URI, values, PetEntry.COLUMN_PET_BREED + " = ?",
+                new String[] {"Poodle"});
+        assertStatsMatchPets();
+
+        for (int i = 0; i < CHANGE_COUNT; i++) {
+            mResolver.delete(randomPet(ids), null, null);
+        }
+        // Removes whole rows of breeds whose pets all weigh less
+        mResolver.delete(PetEntry.CONTENT_URI, PetEntry.COLUMN_PET_WEIGHT + " < ?",
+                new String[] {"8"});
+        assertStatsMatchPets();
+    }
+
+    public void testStatsAreEmptyWithoutPets() {
+        mGenerator.insertPets(mResolver, PET_COUNT, PetDataGenerator.DEFAULT_BATCH_SIZE);
+        mResolver.delete(PetEntry.CONTENT_URI, null, null);
+        assertEquals(0, countRows(PetStatsEntry.CONTENT_URI));
+        assertEquals(0, countRows(PetStatsEntry.CONTENT_BREEDS_URI));
+    }
+
+    /**
+     * Computes statistics per gender and per breed by reading all pets and compares them
+     * with both statistics uris, row by row
+     */
+    private void assertStatsMatchPets() {
+        Map<Object, long[]> genders = new HashMap<Object, long[]>();
+        Map<Object, long[]> breeds = new HashMap<Object, long[]>();
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, new String[] {
+                PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_WEIGHT},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                String breed = cursor.getString(1);
+                // Unknown breed is reported as null, whether it is null or empty in the table
+                addPet(genders, cursor.getInt(0), cursor.getLong(2));
+                addPet(breeds, breed == null || breed.isEmpty() ? null : breed, cursor.getLong(2));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        assertStatsMatch(genders, PetStatsEntry.CONTENT_URI, PetEntry.COLUMN_PET_GENDER);
+        assertStatsMatch(breeds, PetStatsEntry.CONTENT_BREEDS_URI, PetEntry.COLUMN_PET_BREED);
+    }
+
+    private static void addPet(Map<Object, long[]> stats, Object key, long weight) {
+        long[] row = stats.get(key);
+        if (row == null) {
+            row = new long[2];
+            stats.put(key, row);
+        }
+        row[0]++;
+        row[1] += weight;
+    }
+
+    /**
+     * Checks that statistics uri has exactly one row for each key of expected statistics,
+     * with same number of pets and average weight
+     */
+    private void assertStatsMatch(Map<Object, long[]> expected, Uri uri,
+                                  String keyColumn) {
+        Map<Object, long[]> remaining = new HashMap<Object, long[]>(expected);
+        Cursor cursor = mResolver.query(uri, new String[] {keyColumn,
+                PetStatsEntry.COLUMN_PET_COUNT, PetStatsEntry.COLUMN_AVERAGE_WEIGHT},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                Object key = cursor.isNull(0) ? null : keyColumn.equals(PetEntry.COLUMN_PET_GENDER)
+                        ? (Object) cursor.getInt(0) : cursor.getString(0);
+                assertTrue("Unexpected or duplicate row " + key + " in " + uri,
+                        remaining.containsKey(key));
+                long[] row = remaining.remove(key);
+                assertEquals("Pet count of " + key + " in " + uri, row[0], cursor.getLong(1));
+                assertEquals("Average weight of " + key + " in " + uri,
+                        (double) row[1] / row[0], cursor.getDouble(2), 1e-9);
+            }
+        } finally {
+            cursor.close();
+        }
+        assertTrue("Missing rows " + remaining.keySet() + " in " + uri, remaining.isEmpty());
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mResolver.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private List<Long> queryIds() {
+        List<Long> ids = new ArrayList<Long>();
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, new String[] {PetEntry._ID},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Returns uri of a random pet, pet may already be deleted
+     */
+    private Uri randomPet(List<Long> ids) {
+        return ContentUris.withAppendedId(PetEntry.CONTENT_URI, ids.get(mRandom.nextInt(ids.size())));
+    }
+}
@@ -15,36 +15,59 @@
  */
 package com.example.android.pets;
 
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.RadioButton;
+import android.widget.RadioGroup;
+import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetDataGenerator;
+import com.example.android.pets.data.PetImporter;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class CatalogActivity extends AppCompatActivity implements PetPageList.Listener {
 
     private static final String TAG = CatalogActivity.class.getSimpleName();
-    private static final int LOADER_ID = 0;
+    // Seed of generated pets inserted from menu
+    private static final long GENERATOR_SEED = 1;
+    // Request code of the file picker for pets to import
+    private static final int REQUEST_IMPORT_PETS = 1;
     private PetCursorAdapter mCursorAdapter;
+    // Shown instead of the list when there are no pets
+    private View mEmptyView;
+    // Pets shown in the list, loaded page by page and kept by the repository for the process
+    private PetPageList mPageList;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -61,37 +84,86 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        // Setting empty view on the list view to be populated with pets data
-        // Will be shown when there is 0 pets to be shown
-        ListView listView = (ListView) findViewById(R.id.list_view_pet);
-        View emptyView = findViewById(R.id.empty_view);
-        listView.setEmptyView(emptyView);
+        // Setting empty view which will be shown instead of the recycler view
+        // when there is 0 pets to be shown
+        RecyclerView recyclerView = (RecyclerView) findViewById(R.id.recycler_view_pet);
+        mEmptyView = findViewById(R.id.empty_view);
 
-        // Set up empty cursor adapter, passing null for cursor since we don't have it loaded yet
-        // We will update cursor data in onLoadFinished once we have cursor loaded
-        mCursorAdapter = new PetCursorAdapter(this, null);
-        // Attach cursor adapter to list view
-        listView.setAdapter(mCursorAdapter);
+        // Items close to the visible ones are created and bound ahead of time, while main thread
+        // would otherwise be idle between frames
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        layoutManager.setItemPrefetchEnabled(true);
+        recyclerView.setLayoutManager(layoutManager);
 
-        // Setup item click listener
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Set up empty cursor adapter, we will update cursor data in onPetsLoaded
+        // once we have cursor loaded, clicked pet is opened in EditorActivity with
+        // values shown in the list
+        mCursorAdapter = new PetCursorAdapter(this, new PetCursorAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onPetClick(long id, String name, String breed) {
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
                 intent.setData(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id));
+                if (name != null) {
+                    intent.putExtra(EditorActivity.EXTRA_PET_NAME, name);
+                    intent.putExtra(EditorActivity.EXTRA_PET_BREED, breed);
+                }
                 startActivity(intent);
             }
         });
+        // Attach cursor adapter to recycler view
+        recyclerView.setAdapter(mCursorAdapter);
 
-        getSupportLoaderManager().initLoader(LOADER_ID, null, this);
+        // Page list loads pages in scroll direction in background and releases distant ones
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                mPageList.setVisibleRange(layoutManager.findFirstVisibleItemPosition(),
+                        layoutManager.findLastVisibleItemPosition());
+            }
+        });
+
+        // Reuse pets loaded by previous instance of the catalog, or start loading the first page
+        mPageList = PetRepository.getInstance(this).getCatalog();
+        mPageList.setListener(this);
 
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Loaded pets stay in the repository for the next catalog
+        mPageList.removeListener(this);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search pets while user types, every change cancels load for previous text,
+        // so only latest query is run
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_hint));
+        // Restore search text if list is still filtered after configuration change
+        String searchQuery = mPageList.getSearchQuery();
+        if (!searchQuery.isEmpty()) {
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(searchQuery, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mPageList.setSearchQuery(newText.trim());
+                return true;
+            }
+        });
         return true;
     }
 
@@ -99,10 +171,26 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on the "Filter and sort" menu option
+            case R.id.action_filter:
+                showFilterDialog();
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 insertPet();
                 return true;
+            // Respond to a click on the "Insert many pets" menu option
+            case R.id.action_insert_generated_pets:
+                insertGeneratedPets();
+                return true;
+            // Respond to a click on the "Import pets" menu option
+            case R.id.action_import_pets:
+                pickImportFile();
+                return true;
+            // Respond to a click on the "Compact database" menu option
+            case R.id.action_compact_database:
+                compactDatabase();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 showDeleteConfirmationDialog();
@@ -112,31 +200,22 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-
-        String[] projection = {PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED};
-
-        switch (id) {
-            case LOADER_ID:
-                return new CursorLoader(this, PetEntry.CONTENT_URI, projection, null, null, null);
-            default:
-                return null;
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT_PETS) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                importPets(data.getData());
+            }
+            return;
         }
+        super.onActivityResult(requestCode, resultCode, data);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+    public void onPetsLoaded(Cursor cursor, PetPageList.Changes changes) {
 
-        // Swap new cursor in adapter, framework will close old empty cursor
-        mCursorAdapter.swapCursor(data);
-    }
-
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-
-        // This is called when cursor from onLoadFinished is about to close
-        // We need to make sure we are not using it
-        mCursorAdapter.swapCursor(null);
+        // Swap new cursor in adapter and apply only changed items, page list closes old cursor
+        mCursorAdapter.swapCursor(cursor, changes);
+        mEmptyView.setVisibility(mCursorAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     /**
@@ -150,11 +229,218 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
         values.put(PetEntry.COLUMN_PET_WEIGHT, 7);
 
-        Uri retUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-        if(retUri != null) {
-            Toast.makeText(this, R.string.pet_saved, Toast.LENGTH_SHORT).show();
-        } else {
-            Toast.makeText(this, R.string.pet_save_error, Toast.LENGTH_SHORT).show();
+        final Context appContext = getApplicationContext();
+        PetWriteExecutor.getInstance(this).insert(PetEntry.CONTENT_URI, values,
+                new PetWriteExecutor.Callback() {
+            @Override
+            public void onWriteDone(Uri uri, int count) {
+                if(uri != null) {
+                    Toast.makeText(appContext, R.string.pet_saved, Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(appContext, R.string.pet_save_error, Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+    }
+
+    /**
+     * Inserts configured number of generated pets, always the same ones for the same count
+     */
+    private void insertGeneratedPets() {
+        final int petCount = getResources().getInteger(R.integer.config_generated_pet_count);
+        final Context appContext = getApplicationContext();
+        PetWriteExecutor.getInstance(this).execute(new PetWriteExecutor.Operation() {
+            @Override
+            public int run(ContentResolver resolver) {
+                return new PetDataGenerator(GENERATOR_SEED).insertPets(resolver, petCount,
+                        PetDataGenerator.DEFAULT_BATCH_SIZE);
+            }
+        }, new PetWriteExecutor.Callback() {
+            @Override
+            public void onWriteDone(Uri uri, int count) {
+                if (uri != null) {
+                    Toast.makeText(appContext, appContext.getString(R.string.generated_pets_saved,
+                            count), Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(appContext, R.string.pet_save_error, Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+    }
+
+    /**
+     * Lets user pick a CSV or NDJSON file with pets, in the format pets are exported in
+     */
+    private void pickImportFile() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        // File managers often don't know these types, so all files are offered where the
+        // picker can't narrow them down
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES,
+                new String[] {PetEntry.CSV_TYPE, PetEntry.NDJSON_TYPE});
+        startActivityForResult(
+                Intent.createChooser(intent, getString(R.string.action_import_pets)),
+                REQUEST_IMPORT_PETS);
+    }
+
+    /**
+     * Imports pets from picked file on the write thread, file is read as NDJSON if its type
+     * or name says so and as CSV otherwise
+     */
+    private void importPets(final Uri fileUri) {
+        final Context appContext = getApplicationContext();
+        PetWriteExecutor.getInstance(this).execute(new PetWriteExecutor.Operation() {
+            @Override
+            public int run(ContentResolver resolver) {
+                String path = fileUri.getPath();
+                boolean ndjson = PetEntry.NDJSON_TYPE.equals(resolver.getType(fileUri))
+                        || (path != null && path.endsWith(".ndjson"));
+                InputStream in = null;
+                try {
+                    in = resolver.openInputStream(fileUri);
+                    if (in == null) {
+                        throw new FileNotFoundException("No content at " + fileUri);
+                    }
+                    return PetImporter.importPets(resolver, in,
+                            ndjson ? PetEntry.NDJSON_TYPE : PetEntry.CSV_TYPE,
+                            PetImporter.DEFAULT_BATCH_SIZE);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Failed to import pets from " + fileUri, e);
+                } finally {
+                    if (in != null) {
+                        try {
+                            in.close();
+                        } catch (IOException e) {
+                            Log.w(TAG, "Failed to close " + fileUri, e);
+                        }
+                    }
+                }
+            }
+        }, new PetWriteExecutor.Callback() {
+            @Override
+            public void onWriteDone(Uri uri, int count) {
+                if (uri != null) {
+                    Toast.makeText(appContext, appContext.getString(R.string.pets_imported,
+                            count), Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(appContext, R.string.pet_import_error, Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns free space of the database to the system on the write thread. First compaction
+     * of big database rewrites it, so other writes wait until it is done.
+     */
+    private void compactDatabase() {
+        final Context appContext = getApplicationContext();
+        Toast.makeText(appContext, R.string.database_compacting, Toast.LENGTH_SHORT).show();
+        PetWriteExecutor.getInstance(this).execute(new PetWriteExecutor.Operation() {
+            @Override
+            public int run(ContentResolver resolver) {
+                Bundle result = resolver.call(PetContract.BASE_CONTENT_URI,
+                        PetContract.METHOD_COMPACT_DATABASE, null, null);
+                // No pets change, count only tells if database was compacted
+                return result != null && result.getBoolean(PetContract.KEY_COMPACTED) ? 1 : 0;
+            }
+        }, new PetWriteExecutor.Callback() {
+            @Override
+            public void onWriteDone(Uri uri, int count) {
+                Toast.makeText(appContext, uri != null && count > 0 ? R.string.database_compacted
+                        : R.string.database_compact_error, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Shows dialog with current filter of the catalog, applied filter is passed to the
+     * provider, which reads only matching pets in chosen order
+     */
+    private void showFilterDialog() {
+        final View view = getLayoutInflater().inflate(R.layout.dialog_filter, null);
+        final Spinner genderSpinner = (Spinner) view.findViewById(R.id.spinner_filter_gender);
+        final EditText minWeightEditText = (EditText) view.findViewById(R.id.edit_filter_min_weight);
+        final EditText maxWeightEditText = (EditText) view.findViewById(R.id.edit_filter_max_weight);
+        final EditText breedEditText = (EditText) view.findViewById(R.id.edit_filter_breed);
+        final RadioGroup sortGroup = (RadioGroup) view.findViewById(R.id.radio_group_sort);
+
+        ArrayAdapter<CharSequence> genderAdapter = ArrayAdapter.createFromResource(this,
+                R.array.array_filter_gender_options, android.R.layout.simple_spinner_item);
+        genderAdapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        genderSpinner.setAdapter(genderAdapter);
+
+        // Fill in current filter, first gender option is any gender, others follow gender values
+        PetFilter filter = mPageList.getFilter();
+        genderSpinner.setSelection(filter.getGender() == null ? 0 : filter.getGender() + 1);
+        if (filter.getMinWeight() != null) {
+            minWeightEditText.setText(filter.getMinWeight().toString());
+        }
+        if (filter.getMaxWeight() != null) {
+            maxWeightEditText.setText(filter.getMaxWeight().toString());
+        }
+        breedEditText.setText(filter.getBreed());
+        sortGroup.check(filter.getOrderBy().equals(PetEntry.COLUMN_PET_WEIGHT)
+                ? R.id.radio_sort_weight : R.id.radio_sort_name);
+
+        // Pets in weight range are always sorted by weight, see PetFilter
+        final RadioButton sortNameButton = (RadioButton) view.findViewById(R.id.radio_sort_name);
+        TextWatcher weightWatcher = new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                boolean weightRange = parseWeight(minWeightEditText) != null
+                        || parseWeight(maxWeightEditText) != null;
+                sortNameButton.setEnabled(!weightRange);
+                if (weightRange) {
+                    sortGroup.check(R.id.radio_sort_weight);
+                }
+            }
+        };
+        minWeightEditText.addTextChangedListener(weightWatcher);
+        maxWeightEditText.addTextChangedListener(weightWatcher);
+        weightWatcher.afterTextChanged(null);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_filter);
+        builder.setView(view);
+        builder.setPositiveButton(R.string.apply, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                int position = genderSpinner.getSelectedItemPosition();
+                String breed = breedEditText.getText().toString().trim();
+                mPageList.setFilter(new PetFilter(
+                        position <= 0 ? null : position - 1,
+                        parseWeight(minWeightEditText),
+                        parseWeight(maxWeightEditText),
+                        breed.isEmpty() ? null : breed,
+                        sortGroup.getCheckedRadioButtonId() == R.id.radio_sort_weight
+                                ? PetEntry.COLUMN_PET_WEIGHT : PetEntry.COLUMN_PET_NAME));
+            }
+        });
+        builder.setNeutralButton(R.string.reset, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                mPageList.setFilter(PetFilter.DEFAULT);
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Returns weight typed in the field or null if it's empty or not a number
+     */
+    private static Integer parseWeight(EditText editText) {
+        String text = editText.getText().toString().trim();
+        try {
+            return text.isEmpty() ? null : Integer.valueOf(text);
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 
@@ -192,12 +478,20 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
      */
     private void deleteAllPets() {
 
-        int rowsDeleted = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
-        if (rowsDeleted == 0) {
-            Toast.makeText(this, R.string.catalog_delete_pets_failed, Toast.LENGTH_SHORT).show();
-        } else {
-            Toast.makeText(this, R.string.catalog_delete_pets_successful, Toast.LENGTH_SHORT).show();
-        }
+        final Context appContext = getApplicationContext();
+        PetWriteExecutor.getInstance(this).delete(PetEntry.CONTENT_URI, null, null,
+                new PetWriteExecutor.Callback() {
+            @Override
+            public void onWriteDone(Uri uri, int count) {
+                if (count == 0) {
+                    Toast.makeText(appContext, R.string.catalog_delete_pets_failed,
+                            Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(appContext, R.string.catalog_delete_pets_successful,
+                            Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
 
     }
 }
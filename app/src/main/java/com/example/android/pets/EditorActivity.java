@@ -15,15 +15,13 @@
  */
 package com.example.android.pets;
 
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.DialogInterface;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
-import android.support.v4.app.LoaderManager;
 import android.support.v4.app.NavUtils;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
@@ -37,12 +35,17 @@ import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.android.pets.data.Pet;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetValidator;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Allows user to create a new pet or edit an existing one.
  */
-public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class EditorActivity extends AppCompatActivity implements PetRepository.PetObserver {
 
     /** EditText field to enter the pet's name */
     private EditText mNameEditText;
@@ -62,15 +65,23 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private int mGender = PetEntry.GENDER_UNKNOWN;
     private static final String TAG = CatalogActivity.class.getSimpleName();
-    private static final int LOADER_ID = 0;
+    // Values of the pet already shown in the catalog, so editor can show them right away
+    public static final String EXTRA_PET_NAME = "pet_name";
+    public static final String EXTRA_PET_BREED = "pet_breed";
     // Uri of item for which Editor Activity is opened
     private Uri mItemUri;
     // Member and listener to know if currently viewed pet is changed
     private boolean mPetHasChanged = false;
+    // Ids of fields user touched, snapshots of the pet never overwrite them
+    private ArrayList<Integer> mTouchedFieldIds = new ArrayList<Integer>();
+    private static final String STATE_TOUCHED_FIELD_IDS = "touched_field_ids";
     private View.OnTouchListener mTouchListener = new View.OnTouchListener() {
         @Override
         public boolean onTouch(View view, MotionEvent motionEvent) {
             mPetHasChanged = true;
+            if (!mTouchedFieldIds.contains(view.getId())) {
+                mTouchedFieldIds.add(view.getId());
+            }
             return false;
         }
     };
@@ -91,7 +102,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             invalidateOptionsMenu();
         } else {
             setTitle(getString(R.string.editor_activity_title_edit_pet));
-            getSupportLoaderManager().initLoader(LOADER_ID, null, this);
         }
 
         // Find all relevant views that we will need to read user input from
@@ -100,6 +110,23 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
 
+        if (mItemUri != null) {
+            // Show values from the catalog in the first frame, when activity is first created.
+            // After recreation fields restore their own state.
+            if (savedInstanceState == null) {
+                mNameEditText.setText(getIntent().getStringExtra(EXTRA_PET_NAME));
+                mBreedEditText.setText(getIntent().getStringExtra(EXTRA_PET_BREED));
+            }
+        }
+        if (savedInstanceState != null) {
+            ArrayList<Integer> touchedFieldIds =
+                    savedInstanceState.getIntegerArrayList(STATE_TOUCHED_FIELD_IDS);
+            if (touchedFieldIds != null) {
+                mTouchedFieldIds = touchedFieldIds;
+                mPetHasChanged = !mTouchedFieldIds.isEmpty();
+            }
+        }
+
         // Setup OnTouchListener on all fields so we know if user touched or modified them
         // This is needed to warn user about unsaved changes if some
         mNameEditText.setOnTouchListener(mTouchListener);
@@ -109,6 +136,11 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
         setupSpinner();
 
+        if (mItemUri != null) {
+            // Whole pet comes from the repository, from memory if it was opened before,
+            // otherwise it is loaded in background and only fields which differ are updated then
+            PetRepository.getInstance(this).observePet(ContentUris.parseId(mItemUri), this);
+        }
     }
 
     @Override
@@ -192,41 +224,50 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-
-        switch (id) {
-            case LOADER_ID:
-                return new CursorLoader(this, mItemUri, null, null, null, null);
-            default:
-                return null;
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mItemUri != null) {
+            PetRepository.getInstance(this).removeObserver(ContentUris.parseId(mItemUri), this);
         }
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-
-        // Move cursor to 0th position before extracting values
-        if (data.moveToFirst()) {
-            // Extract data from cursor and set them to activity fields
-            String name = data.getString(data.getColumnIndex(PetEntry.COLUMN_PET_NAME));
-            mNameEditText.setText(name);
-            String breed = data.getString(data.getColumnIndex(PetEntry.COLUMN_PET_BREED));
-            mBreedEditText.setText(breed);
-            mGender = data.getInt(data.getColumnIndex(PetEntry.COLUMN_PET_GENDER));
-            mGenderSpinner.setSelection(mGender);
-            int weight = data.getInt(data.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT));
-            mWeightEditText.setText(Integer.toString(weight));
-        }
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putIntegerArrayList(STATE_TOUCHED_FIELD_IDS, mTouchedFieldIds);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
+    public void onPetChanged(long id, Pet pet) {
+        if (pet != null) {
+            // Fields may already show values from the catalog, set only the ones which differ,
+            // so text and cursor of unchanged fields are kept. Snapshot can arrive after user
+            // started editing, fields user touched keep their input.
+            setTextIfChanged(mNameEditText, pet.getName());
+            setTextIfChanged(mBreedEditText, pet.getBreed());
+            if (!mTouchedFieldIds.contains(mGenderSpinner.getId())
+                    && (pet.getGender() != mGender
+                    || mGenderSpinner.getSelectedItemPosition() != pet.getGender())) {
+                mGender = pet.getGender();
+                mGenderSpinner.setSelection(mGender);
+            }
+            setTextIfChanged(mWeightEditText, Integer.toString(pet.getWeight()));
+        }
+    }
 
-        mNameEditText.setText("");
-        mBreedEditText.setText("");
-        mGender = PetEntry.GENDER_UNKNOWN;
-        mGenderSpinner.setSelection(mGender);
-        mWeightEditText.setText("");
+    /**
+     * Sets text of the field if it differs and user didn't touch the field
+     */
+    private void setTextIfChanged(EditText editText, String text) {
+        if (mTouchedFieldIds.contains(editText.getId())) {
+            return;
+        }
+        if (text == null) {
+            text = "";
+        }
+        if (!text.contentEquals(editText.getText())) {
+            editText.setText(text);
+        }
     }
 
     /**
@@ -300,50 +341,82 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         String nameString = mNameEditText.getText().toString().trim();
         String breedString = mBreedEditText.getText().toString().trim();
         String weightString = mWeightEditText.getText().toString().trim();
-        int weightValue = 0;
-        if (!TextUtils.isEmpty(weightString)) {
-            weightValue = Integer.parseInt(weightString);
+        if (TextUtils.isEmpty(weightString)) {
+            weightString = "0";
         }
 
         // Check if user is going to save completely empty pet
-        if (TextUtils.isEmpty(nameString) && TextUtils.isEmpty(breedString) && weightValue == 0
+        if (TextUtils.isEmpty(nameString) && TextUtils.isEmpty(breedString)
+                && weightString.equals("0")
                 && mGender == PetEntry.GENDER_UNKNOWN) {
             finish();
             return;
         }
 
-        // If user wants to leaves name blank
-        if (TextUtils.isEmpty(nameString)) {
-            Toast.makeText(this, R.string.editor_empty_name, Toast.LENGTH_SHORT).show();
-            return;
-        }
-
+        // Weight is left as text, validator reports it if it is not a valid number
         ContentValues values = new ContentValues();
         values.put(PetEntry.COLUMN_PET_NAME, nameString);
         values.put(PetEntry.COLUMN_PET_BREED, breedString);
         values.put(PetEntry.COLUMN_PET_GENDER, mGender);
-        values.put(PetEntry.COLUMN_PET_WEIGHT, weightValue);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weightString);
 
+        // Same rules as in the provider are checked here, so invalid pet is never sent to it.
+        // Every invalid field is marked at once.
+        List<PetValidator.Violation> violations = PetValidator.validate(values, true);
+        if (!violations.isEmpty()) {
+            showViolations(violations);
+            return;
+        }
+        values.put(PetEntry.COLUMN_PET_WEIGHT, Integer.parseInt(weightString));
+
+        // Pet is written in background, result is shown with application context
+        // since this activity is already finished by then
+        final Context appContext = getApplicationContext();
+        PetWriteExecutor writeExecutor = PetWriteExecutor.getInstance(this);
         // If item uri is null it is "add new pet" mode
         if (mItemUri == null) {
-            Uri retUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-            if (retUri != null) {
-                Toast.makeText(this, R.string.pet_saved, Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, R.string.pet_save_error, Toast.LENGTH_SHORT).show();
-            }
+            writeExecutor.insert(PetEntry.CONTENT_URI, values, new PetWriteExecutor.Callback() {
+                @Override
+                public void onWriteDone(Uri uri, int count) {
+                    if (uri != null) {
+                        Toast.makeText(appContext, R.string.pet_saved, Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(appContext, R.string.pet_save_error, Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         } else { // update existing pet mode
-            int rowsUpdated = getContentResolver().update(mItemUri, values, null, null);
-            if (rowsUpdated == 1) {
-                Toast.makeText(this, R.string.pet_updated, Toast.LENGTH_SHORT).show();
-            } else if (rowsUpdated == 0){
-                Toast.makeText(this, R.string.pet_update_error, Toast.LENGTH_SHORT).show();
-            }
+            writeExecutor.update(mItemUri, values, new PetWriteExecutor.Callback() {
+                @Override
+                public void onWriteDone(Uri uri, int count) {
+                    if (count == 1) {
+                        Toast.makeText(appContext, R.string.pet_updated, Toast.LENGTH_SHORT).show();
+                    } else if (count == 0) {
+                        Toast.makeText(appContext, R.string.pet_update_error, Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
         // Go back to CatalogActivity
         finish();
     }
 
+    /**
+     * Shows error on every field with invalid value
+     */
+    private void showViolations(List<PetValidator.Violation> violations) {
+        for (PetValidator.Violation violation : violations) {
+            String column = violation.getColumn();
+            if (column.equals(PetEntry.COLUMN_PET_NAME)) {
+                mNameEditText.setError(getString(R.string.editor_empty_name));
+            } else if (column.equals(PetEntry.COLUMN_PET_WEIGHT)) {
+                mWeightEditText.setError(getString(R.string.editor_invalid_weight));
+            } else {
+                Toast.makeText(this, violation.getMessage(), Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
     private void showDeleteConfirmationDialog() {
         // Create an AlertDialog.Builder and set the message, and click listeners
         // for the positive and negative buttons on the dialog.
@@ -376,12 +449,20 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private void deletePet() {
         // Only perform delete if it is existing pet
         if(mItemUri != null) {
-            int rowsDeleted = getContentResolver().delete(mItemUri, null, null);
-            if (rowsDeleted == 1) {
-                Toast.makeText(this, R.string.editor_delete_pet_successful, Toast.LENGTH_SHORT).show();
-            } else if (rowsDeleted == 0) {
-                Toast.makeText(this, R.string.editor_delete_pet_failed, Toast.LENGTH_SHORT).show();
-            }
+            final Context appContext = getApplicationContext();
+            PetWriteExecutor.getInstance(this).delete(mItemUri, null, null,
+                    new PetWriteExecutor.Callback() {
+                @Override
+                public void onWriteDone(Uri uri, int count) {
+                    if (count == 1) {
+                        Toast.makeText(appContext, R.string.editor_delete_pet_successful,
+                                Toast.LENGTH_SHORT).show();
+                    } else if (count == 0) {
+                        Toast.makeText(appContext, R.string.editor_delete_pet_failed,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
         }
         // Close activity, go back to CatalogActivity
         finish();
@@ -1,12 +1,13 @@
 package com.example.android.pets;
 
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
-import android.text.TextUtils;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
 import android.widget.TextView;
 import com.example.android.pets.data.PetContract.PetEntry;
 
@@ -15,64 +16,172 @@ import com.example.android.pets.data.PetContract.PetEntry;
  */
 
 /**
- * {@link PetCursorAdapter} is an adapter for a list or grid view
+ * {@link PetCursorAdapter} is an adapter for a recycler view
  * that uses a {@link Cursor} of pet data as its data source. This adapter knows
  * how to create list items for each row of pet data in the {@link Cursor}.
  */
-public class PetCursorAdapter extends CursorAdapter {
+public class PetCursorAdapter extends RecyclerView.Adapter<PetCursorAdapter.PetViewHolder> {
+
+    /**
+     * Listener for clicks on list items
+     */
+    public interface OnPetClickListener {
+
+        /**
+         * @param name  Name of the pet shown in the list, or null if it is not loaded yet
+         * @param breed Breed of the pet shown in the list
+         */
+        void onPetClick(long id, String name, String breed);
+    }
+
+    // Initial size of buffers which hold text of one list item, they grow if text is longer
+    private static final int TEXT_BUFFER_SIZE = 64;
+
+    private final Context mContext;
+    private final OnPetClickListener mClickListener;
+    // Shown for pets without breed, loaded once instead of every time item is bound
+    private final String mEmptyBreedText;
+    private Cursor mCursor;
+    // Column indices of current cursor, found once when cursor is swapped
+    private int mIdColumnIndex;
+    private int mNameColumnIndex;
+    private int mBreedColumnIndex;
 
     /**
      * Constructs a new {@link PetCursorAdapter}.
      *
-     * @param context The context
-     * @param c       The cursor from which to get the data.
+     * @param context       The context
+     * @param clickListener Listener which is called when pet is clicked
      */
-    public PetCursorAdapter(Context context, Cursor c) {
-        super(context, c, 0 /* flags */);
+    public PetCursorAdapter(Context context, OnPetClickListener clickListener) {
+        mContext = context;
+        mClickListener = clickListener;
+        mEmptyBreedText = context.getString(R.string.empty_breed_text);
+        // Pets have stable ids, so recycler view can animate items which are moved or changed
+        setHasStableIds(true);
+    }
+
+    /**
+     * Swaps in a new cursor and notifies only about given changes, or about whole data set
+     * if changes are null. Old cursor is not closed.
+     */
+    public void swapCursor(Cursor newCursor, PetPageList.Changes changes) {
+        mCursor = newCursor;
+        if (mCursor != null) {
+            mIdColumnIndex = mCursor.getColumnIndexOrThrow(PetEntry._ID);
+            mNameColumnIndex = mCursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+            mBreedColumnIndex = mCursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+        }
+        if (changes == null) {
+            notifyDataSetChanged();
+            return;
+        }
+        changes.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                notifyItemMoved(fromPosition, toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                notifyItemRangeChanged(position, count, payload);
+            }
+        });
+    }
+
+    @Override
+    public int getItemCount() {
+        return mCursor == null ? 0 : mCursor.getCount();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        mCursor.moveToPosition(position);
+        return mCursor.getLong(mIdColumnIndex);
     }
 
     /**
      * Makes a new blank list item view. No data is set (or bound) to the views yet.
      *
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
-     * @param parent  The parent to which the new view is attached to
-     * @return the newly created list item view.
+     * @param parent   The parent to which the new view is attached to
+     * @param viewType The view type of the new view
+     * @return the view holder of newly created list item view.
      */
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+    public PetViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false);
+        return new PetViewHolder(view);
     }
 
     /**
-     * This method binds the pet data (in the current row pointed to by cursor) to the given
+     * This method binds the pet data (in the row at given position of cursor) to the given
      * list item layout. For example, the name for the current pet can be set on the name TextView
-     * in the list item layout.
+     * in the list item layout. Text is copied from cursor into buffers of the view holder,
+     * so once buffers are big enough nothing is allocated while binding.
      *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * @param holder   Holder of existing view, returned earlier by onCreateViewHolder() method
+     * @param position The position of pet in the cursor
      */
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
+    public void onBindViewHolder(PetViewHolder holder, int position) {
 
-        // Find fields to populate in inflated template
-        TextView tvName = (TextView) view.findViewById(R.id.name);
-        TextView tvSummary = (TextView) view.findViewById(R.id.summary);
+        mCursor.moveToPosition(position);
 
-        // Extract properties from cursor
-        String name = cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME));
-        String summary = cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED));
+        // Extract properties from cursor and populate fields with them
+        CharArrayBuffer name = holder.mNameBuffer;
+        mCursor.copyStringToBuffer(mNameColumnIndex, name);
+        holder.mNameTextView.setText(name.data, 0, name.sizeCopied);
 
-        // If breed is empty, set summary to "Unknown breed"
-        if (TextUtils.isEmpty(summary)) {
-            summary = context.getString(R.string.empty_breed_text);
+        // If breed is empty, set summary to "Unknown breed". Pet without name is in a page which
+        // is not loaded yet, it stays blank until the page is loaded and the item is rebound.
+        CharArrayBuffer summary = holder.mSummaryBuffer;
+        mCursor.copyStringToBuffer(mBreedColumnIndex, summary);
+        if (name.sizeCopied == 0) {
+            holder.mSummaryTextView.setText(null);
+        } else if (summary.sizeCopied == 0) {
+            holder.mSummaryTextView.setText(mEmptyBreedText);
+        } else {
+            holder.mSummaryTextView.setText(summary.data, 0, summary.sizeCopied);
         }
+    }
 
-        // Populate fields with extracted properties
-        tvName.setText(name);
-        tvSummary.setText(summary);
+    /**
+     * Holds views of one list item, so they are found only once when item is created
+     */
+    class PetViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView mNameTextView;
+        final TextView mSummaryTextView;
+        // Reused for text of every pet bound to this holder
+        final CharArrayBuffer mNameBuffer = new CharArrayBuffer(TEXT_BUFFER_SIZE);
+        final CharArrayBuffer mSummaryBuffer = new CharArrayBuffer(TEXT_BUFFER_SIZE);
+
+        PetViewHolder(View itemView) {
+            super(itemView);
+            mNameTextView = (TextView) itemView.findViewById(R.id.name);
+            mSummaryTextView = (TextView) itemView.findViewById(R.id.summary);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                // Values shown in the item are passed on, so they don't have to be queried again
+                mCursor.moveToPosition(position);
+                mClickListener.onPetClick(getItemId(), mCursor.getString(mNameColumnIndex),
+                        mCursor.getString(mBreedColumnIndex));
+            }
+        }
     }
 }
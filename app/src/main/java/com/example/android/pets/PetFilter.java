@@ -0,0 +1,112 @@
+package com.example.android.pets;
+
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Filter and sort order of pets in the catalog. Filter is applied by the provider through query
+ * parameters of the pets uri, so only matching pets are read. Without gender and weight
+ * filters pets sorted by name are read from pets summary.
+ * Pets in weight range are always sorted by weight. Range is read from an index which ends
+ * with weight, so in name order every page would have to sort all pets in the range.
+ */
+public final class PetFilter {
+
+    // All pets sorted by name
+    public static final PetFilter DEFAULT = new PetFilter(null, null, null, null,
+            PetEntry.COLUMN_PET_NAME);
+
+    // Null values don't filter pets
+    private final Integer mGender;
+    private final Integer mMinWeight;
+    private final Integer mMaxWeight;
+    private final String mBreed;
+    // Column pets are sorted by, name or weight
+    private final String mOrderBy;
+
+    public PetFilter(Integer gender, Integer minWeight, Integer maxWeight, String breed,
+                     String orderBy) {
+        if (!orderBy.equals(PetEntry.COLUMN_PET_NAME) && !orderBy.equals(PetEntry.COLUMN_PET_WEIGHT)) {
+            throw new IllegalArgumentException("Pets can't be sorted by " + orderBy);
+        }
+        mGender = gender;
+        mMinWeight = minWeight;
+        mMaxWeight = maxWeight;
+        mBreed = breed;
+        mOrderBy = minWeight != null || maxWeight != null ? PetEntry.COLUMN_PET_WEIGHT : orderBy;
+    }
+
+    public Integer getGender() {
+        return mGender;
+    }
+
+    public Integer getMinWeight() {
+        return mMinWeight;
+    }
+
+    public Integer getMaxWeight() {
+        return mMaxWeight;
+    }
+
+    public String getBreed() {
+        return mBreed;
+    }
+
+    public String getOrderBy() {
+        return mOrderBy;
+    }
+
+    /**
+     * Returns uri pages of pets matching this filter are read from, with filter parameters
+     * and sort order, but without paging keys
+     */
+    Uri.Builder buildUri() {
+        boolean summary = mOrderBy.equals(PetEntry.COLUMN_PET_NAME) && mGender == null
+                && mMinWeight == null && mMaxWeight == null;
+        Uri.Builder builder = (summary ? PetEntry.CONTENT_SUMMARY_URI : PetEntry.CONTENT_URI)
+                .buildUpon()
+                .appendQueryParameter(PetEntry.QUERY_PARAM_ORDER_BY, mOrderBy);
+        if (mGender != null) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAM_GENDER, mGender.toString());
+        }
+        if (mMinWeight != null) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAM_MIN_WEIGHT, mMinWeight.toString());
+        }
+        if (mMaxWeight != null) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAM_MAX_WEIGHT, mMaxWeight.toString());
+        }
+        if (mBreed != null) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAM_BREED, mBreed);
+        }
+        return builder;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PetFilter)) {
+            return false;
+        }
+        PetFilter other = (PetFilter) o;
+        return equal(mGender, other.mGender) && equal(mMinWeight, other.mMinWeight)
+                && equal(mMaxWeight, other.mMaxWeight) && equal(mBreed, other.mBreed)
+                && mOrderBy.equals(other.mOrderBy);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = mOrderBy.hashCode();
+        hash = 31 * hash + (mGender == null ? 0 : mGender.hashCode());
+        hash = 31 * hash + (mMinWeight == null ? 0 : mMinWeight.hashCode());
+        hash = 31 * hash + (mMaxWeight == null ? 0 : mMaxWeight.hashCode());
+        hash = 31 * hash + (mBreed == null ? 0 : mBreed.hashCode());
+        return hash;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
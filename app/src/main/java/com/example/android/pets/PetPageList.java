@@ -0,0 +1,1058 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.AbstractCursor;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link PetPageList} is a list of pets which is loaded from the content provider page by page,
+ * using keyset paging. Pages are queried and their cursors are filled on a background thread,
+ * so the first page is shown as soon as it is ready and next pages are fetched while user
+ * scrolls. List outlives configuration changes, activity only attaches its {@link Listener}.
+ * When a single pet changes, only pages which held it or which will hold it are reloaded, so
+ * an edit costs the same no matter how many pets are loaded. Difference between old and new
+ * pets is computed on the background thread too, so list can apply only minimal item updates.
+ *
+ * For very large catalogs only a window of pages around the visible pets keeps its cursor.
+ * Pages outside of the window are released, they keep only ids of their pets, so positions
+ * don't change and their rows are blank until they are loaded again. Pages in scroll direction
+ * are loaded ahead on the background thread, so scrolling never reads from disk on the main
+ * thread.
+ */
+public class PetPageList {
+
+    /**
+     * Receives loaded pets on the main thread
+     */
+    public interface Listener {
+
+        /**
+         * Called when pages are loaded or reloaded.
+         *
+         * @param cursor  Cursor with all loaded pets. It is owned by the list and it is closed
+         *                after next call of this method, so listener must not close it.
+         * @param changes Changes from previously delivered cursor, or null if they are not known
+         *                and whole list should be refreshed
+         */
+        void onPetsLoaded(Cursor cursor, Changes changes);
+    }
+
+    /**
+     * Changes of pet positions between two cursors delivered to the {@link Listener}
+     */
+    public static final class Changes {
+
+        private final DiffUtil.DiffResult mDiff;
+        // Position of the first pet which could be changed
+        private final int mOffset;
+        // Number of pets inserted at the offset, used if there is no diff
+        private final int mInsertCount;
+
+        private Changes(DiffUtil.DiffResult diff, int offset, int insertCount) {
+            mDiff = diff;
+            mOffset = offset;
+            mInsertCount = insertCount;
+        }
+
+        /**
+         * Dispatches item updates to given callback, for example to notify an adapter
+         */
+        public void dispatchUpdatesTo(final ListUpdateCallback callback) {
+            if (mDiff == null) {
+                callback.onInserted(mOffset, mInsertCount);
+                return;
+            }
+            mDiff.dispatchUpdatesTo(new ListUpdateCallback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    callback.onInserted(mOffset + position, count);
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    callback.onRemoved(mOffset + position, count);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    callback.onMoved(mOffset + fromPosition, mOffset + toPosition);
+                }
+
+                @Override
+                public void onChanged(int position, int count, Object payload) {
+                    callback.onChanged(mOffset + position, count, payload);
+                }
+            });
+        }
+    }
+
+    // If more pets than this change while a task is running, all pages are reloaded instead
+    private static final int MAX_PENDING_CHANGES = 20;
+    // Diff is not computed if more pets than this could have changed, list is refreshed instead
+    private static final int MAX_DIFF_PETS = 2000;
+
+    private final ContentResolver mResolver;
+    // Columns requested by the user of the list
+    private final String[] mProjection;
+    private final int mPageSize;
+    // Number of pets ahead of visible ones in scroll direction which are loaded in advance
+    private final int mPrefetchDistance;
+    // Number of pets around visible ones whose pages keep their cursors
+    private final int mWindowSize;
+    private final ContentObserver mObserver;
+
+    private Listener mListener;
+    // Search query and filter of shown pets, replaced as a whole when either changes, so
+    // tasks keep the one they were started with
+    private Query mQuery;
+    private List<Page> mPages = new ArrayList<Page>();
+    private Cursor mCursor;
+    private boolean mHasMore = true;
+    // Task which currently loads pets, only one task runs at a time
+    private LoadTask mTask;
+    // Set when pets change while task is running, so pages are reloaded once it finishes
+    private boolean mReloadPending;
+    // Ids of single pets which changed while task was running
+    private final Set<Long> mPendingChanges = new HashSet<Long>();
+    // Last visible range and scroll direction, list is scrolled down until it is scrolled up
+    private int mFirstVisible = -1;
+    private int mLastVisible = -1;
+    private boolean mScrollingDown = true;
+    private boolean mClosed;
+
+    /**
+     * Constructs a new {@link PetPageList}.
+     *
+     * @param resolver   The content resolver used to query pets
+     * @param projection Columns to load, must contain _id. Column pets are sorted by is
+     *                   loaded as well.
+     * @param pageSize   Number of pets loaded in one page
+     * @param prefetchDistance Number of pets ahead of visible ones in scroll direction which
+     *                   are loaded in advance
+     * @param windowSize Number of pets around visible ones which stay loaded, pages outside
+     *                   of this window are released
+     */
+    public PetPageList(ContentResolver resolver, String[] projection, int pageSize,
+                       int prefetchDistance, int windowSize) {
+        mResolver = resolver;
+        mProjection = projection;
+        mPageSize = pageSize;
+        mPrefetchDistance = prefetchDistance;
+        // Window always holds visible pets with prefetched ones and at least two pages
+        mWindowSize = Math.max(windowSize, prefetchDistance + 2 * pageSize);
+        mQuery = new Query("", PetFilter.DEFAULT, projection);
+
+        // Reload loaded pages whenever pets change, before Jelly Bean changed uri is not known
+        mObserver = new ContentObserver(new Handler(Looper.getMainLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onPetsChanged(uri);
+            }
+        };
+        mResolver.registerContentObserver(PetEntry.CONTENT_URI, true, mObserver);
+    }
+
+    /**
+     * Sets listener which receives loaded pets. If some pets are already loaded they are
+     * delivered to the listener right away, otherwise loading of the first page is started.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+        if (mListener == null) {
+            return;
+        }
+        if (mCursor != null) {
+            mListener.onPetsLoaded(mCursor, null);
+        } else if (mTask == null) {
+            loadNextPage();
+        }
+    }
+
+    /**
+     * Removes given listener, if it is still the listener of the list. Old activity is destroyed
+     * after its replacement has set itself as listener, so it must not clear the new one.
+     */
+    public void removeListener(Listener listener) {
+        if (mListener == listener) {
+            mListener = null;
+        }
+    }
+
+    public String getSearchQuery() {
+        return mQuery.search;
+    }
+
+    /**
+     * Shows only pets which match given full text search query, or all pets if it is empty.
+     * Currently loaded pets stay visible until first results are loaded.
+     */
+    public void setSearchQuery(String query) {
+        if (mClosed || query.equals(mQuery.search)) {
+            return;
+        }
+        mQuery = new Query(query, mQuery.filter, mProjection);
+        mHasMore = query.isEmpty();
+
+        // Results of previous query are not needed anymore
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+        mReloadPending = false;
+        mPendingChanges.clear();
+
+        List<Page> pages = new ArrayList<Page>();
+        pages.add(new Page(null, null));
+        startTask(new LoadTask(pages, false, null));
+    }
+
+    public PetFilter getFilter() {
+        return mQuery.filter;
+    }
+
+    /**
+     * Shows only pets which match given filter, sorted by its order. Filter is not used while
+     * list shows search results. Currently loaded pets stay visible until new ones are loaded.
+     */
+    public void setFilter(PetFilter filter) {
+        if (mClosed || filter.equals(mQuery.filter)) {
+            return;
+        }
+        mQuery = new Query(mQuery.search, filter, mProjection);
+        if (!mQuery.search.isEmpty()) {
+            return;
+        }
+        mHasMore = true;
+
+        // Pages of previous filter are not needed anymore
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+        mReloadPending = false;
+        mPendingChanges.clear();
+
+        List<Page> pages = new ArrayList<Page>();
+        pages.add(new Page(null, null));
+        startTask(new LoadTask(pages, false, null));
+    }
+
+    /**
+     * Called when visible pets change, positions are positions in the delivered cursor.
+     * Released pages close to the visible pets in scroll direction are loaded again, the next
+     * page is loaded when pets close to the end are visible, and pages far from the visible
+     * pets are released. Nothing is done while a task is running, since the list calls this
+     * on every scroll it is called again soon.
+     */
+    public void setVisibleRange(int firstVisible, int lastVisible) {
+        if (firstVisible < 0 || lastVisible < firstVisible) {
+            return;
+        }
+        if (firstVisible != mFirstVisible) {
+            mScrollingDown = firstVisible > mFirstVisible;
+        } else if (lastVisible != mLastVisible) {
+            mScrollingDown = lastVisible > mLastVisible;
+        }
+        mFirstVisible = firstVisible;
+        mLastVisible = lastVisible;
+        if (mClosed || mTask != null || mPages.isEmpty()) {
+            return;
+        }
+
+        // Pets which must be loaded, visible ones and ones which will be visible soon
+        int wantedStart = mScrollingDown ? firstVisible : firstVisible - mPrefetchDistance;
+        int wantedEnd = mScrollingDown ? lastVisible + mPrefetchDistance : lastVisible;
+        // Rest of the window stays behind, for user who turns back
+        int slack = Math.max(0, mWindowSize - (wantedEnd - wantedStart + 1));
+        int keepStart = mScrollingDown ? wantedStart - slack : wantedStart;
+        int keepEnd = mScrollingDown ? wantedEnd : wantedEnd + slack;
+
+        int restoreStart = -1;
+        int restoreEnd = -1;
+        int start = 0;
+        for (int i = 0; i < mPages.size(); i++) {
+            Page page = mPages.get(i);
+            int end = start + page.ids.length - 1;
+            if (page.isReleased()) {
+                if (start <= wantedEnd && end >= wantedStart) {
+                    if (restoreStart < 0) {
+                        restoreStart = i;
+                    }
+                    restoreEnd = i + 1;
+                }
+            } else if ((end < keepStart || start > keepEnd) && page.ids.length > 0) {
+                page.release();
+            }
+            start = end + 1;
+        }
+
+        if (restoreStart >= 0) {
+            startTask(new LoadTask(new ArrayList<Page>(mPages), restoreStart, restoreEnd));
+        } else if (mScrollingDown && wantedEnd >= start) {
+            loadNextPage();
+        }
+    }
+
+    /**
+     * Starts loading of the next page, if there is one and nothing else is loading
+     */
+    public void loadNextPage() {
+        if (mClosed || mTask != null || !mHasMore) {
+            return;
+        }
+
+        // Next page starts right after the last loaded pet
+        Page page;
+        Page lastPage = mPages.isEmpty() ? null : mPages.get(mPages.size() - 1);
+        Cursor lastCursor = lastPage == null ? null : lastPage.cursor;
+        if (lastPage != null && lastPage.isReleased()) {
+            // Last page is loaded again first, once user scrolls close to it
+            return;
+        } else if (lastCursor != null && lastCursor.moveToLast()) {
+            page = new Page(lastCursor.getLong(lastCursor.getColumnIndexOrThrow(PetEntry._ID)),
+                    lastCursor.getString(lastCursor.getColumnIndexOrThrow(mQuery.orderBy)));
+        } else if (lastPage == null) {
+            page = new Page(null, null);
+        } else {
+            // Last page is empty, so there is nothing after it
+            mHasMore = false;
+            return;
+        }
+
+        List<Page> pages = new ArrayList<Page>();
+        pages.add(page);
+        startTask(new LoadTask(pages, true, null));
+    }
+
+    /**
+     * Reloads all currently loaded pages. Every page is reloaded by its key range, so the
+     * cost depends only on number of loaded pets and not on size of the pets table.
+     */
+    public void reload() {
+        if (mClosed) {
+            return;
+        }
+        if (mTask != null) {
+            mReloadPending = true;
+            return;
+        }
+        mPendingChanges.clear();
+
+        // Released pages stay released, they are loaded with current pets once they are needed
+        List<Page> pages = new ArrayList<Page>();
+        for (Page page : mPages) {
+            pages.add(page.isReleased() ? page : page.copyRange());
+        }
+        if (pages.isEmpty()) {
+            pages.add(new Page(null, null));
+        }
+        startTask(new LoadTask(pages, false, null));
+    }
+
+    /**
+     * Called when pets change. If uri is uri of a single pet, only pages affected by that pet are
+     * reloaded, otherwise all pages are.
+     */
+    private void onPetsChanged(Uri uri) {
+        long id = -1;
+        if (uri != null && uri.getPathSegments().size() == 2
+                && uri.getPathSegments().get(0).equals(PetContract.PATH_PETS)) {
+            try {
+                id = ContentUris.parseId(uri);
+            } catch (NumberFormatException e) {
+                id = -1;
+            }
+        }
+
+        // Search results are one page sorted by rank, so they are always reloaded whole
+        if (id < 0 || !mQuery.search.isEmpty() || mPages.isEmpty()) {
+            reload();
+            return;
+        }
+        if (mClosed) {
+            return;
+        }
+        if (mTask != null) {
+            mPendingChanges.add(id);
+            if (mPendingChanges.size() > MAX_PENDING_CHANGES) {
+                mReloadPending = true;
+            }
+            return;
+        }
+
+        Set<Long> changedIds = new HashSet<Long>();
+        changedIds.add(id);
+        startTask(new LoadTask(new ArrayList<Page>(mPages), false, changedIds));
+    }
+
+    /**
+     * Stops loading and releases all loaded pets. List can't be used after it is closed.
+     */
+    public void close() {
+        mClosed = true;
+        mListener = null;
+        mResolver.unregisterContentObserver(mObserver);
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+        closePages(mPages, null);
+        mPages.clear();
+        mCursor = null;
+    }
+
+    private void startTask(LoadTask task) {
+        mTask = task;
+        mTask.execute();
+    }
+
+    /**
+     * Called on the main thread when task has loaded its pages
+     */
+    private void onPagesLoaded(LoadTask task, List<Page> pages) {
+        mTask = null;
+
+        Page newPage = task.mAppend ? pages.get(0) : null;
+        if (newPage != null && newPage.cursor.getCount() == 0 && !mPages.isEmpty()) {
+            // Nothing after the last loaded page
+            newPage.cursor.close();
+            mHasMore = false;
+        } else {
+            List<Page> oldPages = mPages;
+            if (newPage != null) {
+                mPages = new ArrayList<Page>(oldPages);
+                if (!mPages.isEmpty()) {
+                    // Previous last page now ends where the new one starts
+                    Page lastPage = mPages.get(mPages.size() - 1);
+                    lastPage.uptoId = newPage.afterId;
+                    lastPage.uptoKey = newPage.afterKey;
+                }
+                mPages.add(newPage);
+            } else {
+                mPages = pages;
+            }
+
+            // Only the last page is open ended, if it is full there could be more pets after it
+            Page lastPage = mPages.get(mPages.size() - 1);
+            mHasMore = task.mLoadedQuery.search.isEmpty() && lastPage.ids.length >= mPageSize;
+
+            publish(oldPages, task.mChanges, task.mLoadedQuery);
+        }
+
+        if (mReloadPending) {
+            mReloadPending = false;
+            reload();
+        } else if (!mPendingChanges.isEmpty() && !mPages.isEmpty()) {
+            Set<Long> changedIds = new HashSet<Long>(mPendingChanges);
+            mPendingChanges.clear();
+            startTask(new LoadTask(new ArrayList<Page>(mPages), false, changedIds));
+        } else {
+            // User could scroll further while task was running
+            setVisibleRange(mFirstVisible, mLastVisible);
+        }
+    }
+
+    /**
+     * Delivers cursor with all loaded pages to the listener and then closes cursors of old pages
+     * which are not used anymore
+     */
+    private void publish(List<Page> oldPages, Changes changes, Query query) {
+        if (mPages.size() == 1) {
+            mCursor = mPages.get(0).cursor;
+        } else {
+            mCursor = new PagesCursor(mPages, query.projection);
+        }
+
+        if (mListener != null) {
+            mListener.onPetsLoaded(mCursor, changes);
+        }
+        closePages(oldPages, mPages);
+    }
+
+    /**
+     * Closes cursors of given pages, except for ones which are still in use
+     */
+    private static void closePages(List<Page> pages, List<Page> inUse) {
+        for (Page page : pages) {
+            if (page.cursor != null && (inUse == null || !inUse.contains(page))) {
+                page.cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Queries one page of pets for given query and fills its cursor, must be called on
+     * a background thread
+     */
+    private void loadPage(Page page, Query query) {
+        Uri uri;
+        if (!query.search.isEmpty()) {
+            uri = PetEntry.buildSearchUri(query.search, mPageSize);
+        } else {
+            Uri.Builder builder = query.filter.buildUri();
+            if (page.afterId != null) {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAM_AFTER_ID,
+                        String.valueOf(page.afterId));
+                if (query.orderBy.equals(PetEntry.COLUMN_PET_NAME)) {
+                    builder.appendQueryParameter(PetEntry.QUERY_PARAM_AFTER_NAME, page.afterKey);
+                } else if (query.orderBy.equals(PetEntry.COLUMN_PET_WEIGHT)) {
+                    builder.appendQueryParameter(PetEntry.QUERY_PARAM_AFTER_WEIGHT, page.afterKey);
+                }
+            }
+            if (page.uptoId != null) {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAM_UPTO_ID,
+                        String.valueOf(page.uptoId));
+                if (query.orderBy.equals(PetEntry.COLUMN_PET_NAME)) {
+                    builder.appendQueryParameter(PetEntry.QUERY_PARAM_UPTO_NAME, page.uptoKey);
+                } else if (query.orderBy.equals(PetEntry.COLUMN_PET_WEIGHT)) {
+                    builder.appendQueryParameter(PetEntry.QUERY_PARAM_UPTO_WEIGHT, page.uptoKey);
+                }
+            } else {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAM_LIMIT, String.valueOf(mPageSize));
+            }
+            uri = builder.build();
+        }
+
+        Cursor cursor = mResolver.query(uri, query.projection, null, null, null);
+        if (cursor == null) {
+            cursor = new MatrixCursor(query.projection, 0);
+        }
+        // Reading rows fills cursor window here, so main thread doesn't read from disk
+        long[] ids = new long[cursor.getCount()];
+        int[] hashes = new int[ids.length];
+        int idIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
+        int columnCount = cursor.getColumnCount();
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            ids[i] = cursor.getLong(idIndex);
+            int hash = 1;
+            for (int column = 0; column < columnCount; column++) {
+                String value = cursor.getString(column);
+                hash = 31 * hash + (value == null ? 0 : value.hashCode());
+            }
+            hashes[i] = hash;
+        }
+        page.cursor = cursor;
+        page.ids = ids;
+        page.hashes = hashes;
+    }
+
+    /**
+     * Computes changes between old and new pages, must be called on a background thread.
+     * Pages which are same in both lists at their start and end are skipped, so when only one
+     * page is reloaded, only pets of that page are compared.
+     */
+    private static Changes diffPages(List<Page> oldPages, List<Page> newPages) {
+        int start = 0;
+        int offset = 0;
+        while (start < oldPages.size() && start < newPages.size()
+                && oldPages.get(start) == newPages.get(start)) {
+            offset += oldPages.get(start).ids.length;
+            start++;
+        }
+        int oldEnd = oldPages.size();
+        int newEnd = newPages.size();
+        while (oldEnd > start && newEnd > start
+                && oldPages.get(oldEnd - 1) == newPages.get(newEnd - 1)) {
+            oldEnd--;
+            newEnd--;
+        }
+
+        if (countPets(oldPages, start, oldEnd) + countPets(newPages, start, newEnd)
+                > MAX_DIFF_PETS) {
+            return null;
+        }
+        final long[] oldIds = new long[countPets(oldPages, start, oldEnd)];
+        final int[] oldHashes = new int[oldIds.length];
+        concatPages(oldPages, start, oldEnd, oldIds, oldHashes);
+        final long[] newIds = new long[countPets(newPages, start, newEnd)];
+        final int[] newHashes = new int[newIds.length];
+        concatPages(newPages, start, newEnd, newIds, newHashes);
+
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldIds.length;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newIds.length;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldIds[oldItemPosition] == newIds[newItemPosition];
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldHashes[oldItemPosition] == newHashes[newItemPosition];
+            }
+        }, false);
+        return new Changes(diff, offset, 0);
+    }
+
+    /**
+     * Returns number of pets in pages from start up to, but not including, end
+     */
+    private static int countPets(List<Page> pages, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            count += pages.get(i).ids.length;
+        }
+        return count;
+    }
+
+    /**
+     * Copies ids and hashes of pets in pages from start up to, but not including, end
+     * into given arrays
+     */
+    private static void concatPages(List<Page> pages, int start, int end, long[] ids, int[] hashes) {
+        int position = 0;
+        for (int i = start; i < end; i++) {
+            Page page = pages.get(i);
+            System.arraycopy(page.ids, 0, ids, position, page.ids.length);
+            System.arraycopy(page.hashes, 0, hashes, position, page.hashes.length);
+            position += page.ids.length;
+        }
+    }
+
+    /**
+     * Returns index of the page whose key range holds pet with given id, or -1 if pet doesn't
+     * exist anymore. Pages are ordered by orderBy column. Must be called on a background thread,
+     * since it may query pet's key.
+     */
+    private int findPageForPet(List<Page> pages, long id, String orderBy) {
+        String key = null;
+        if (!orderBy.equals(PetEntry._ID)) {
+            Cursor cursor = mResolver.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                    new String[] {orderBy}, null, null, null);
+            if (cursor == null) {
+                return -1;
+            }
+            try {
+                if (!cursor.moveToFirst()) {
+                    return -1;
+                }
+                key = cursor.getString(0);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.get(i);
+            if (page.afterId != null
+                    && compareKeys(orderBy, key, id, page.afterKey, page.afterId) <= 0) {
+                continue;
+            }
+            if (page.uptoId == null
+                    || compareKeys(orderBy, key, id, page.uptoKey, page.uptoId) <= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares keys of two pets in the order used by the provider, by orderBy column and then
+     * by _id. Names are compared by code points, which is the order of SQLite BINARY collation,
+     * weights are compared as numbers.
+     */
+    private static int compareKeys(String orderBy, String key1, long id1, String key2, long id2) {
+        if (orderBy.equals(PetEntry.COLUMN_PET_WEIGHT)) {
+            long weight1 = Long.parseLong(key1);
+            long weight2 = Long.parseLong(key2);
+            if (weight1 != weight2) {
+                return weight1 < weight2 ? -1 : 1;
+            }
+        } else if (!orderBy.equals(PetEntry._ID)) {
+            int i1 = 0;
+            int i2 = 0;
+            while (i1 < key1.length() && i2 < key2.length()) {
+                int c1 = key1.codePointAt(i1);
+                int c2 = key2.codePointAt(i2);
+                if (c1 != c2) {
+                    return c1 < c2 ? -1 : 1;
+                }
+                i1 += Character.charCount(c1);
+                i2 += Character.charCount(c2);
+            }
+            if (i1 < key1.length()) {
+                return 1;
+            } else if (i2 < key2.length()) {
+                return -1;
+            }
+        }
+        return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+    }
+
+    /**
+     * Search query and filter pets are loaded with. It never changes, list replaces it when
+     * query or filter changes, so a task can read it on the background thread.
+     */
+    private static final class Query {
+        // Text for full text search, if it is not empty only best ranked results which fit
+        // into a single page are loaded
+        final String search;
+        // Filter and sort order of pets, not used while searching
+        final PetFilter filter;
+        // Column pets are sorted by and loaded columns, which always include that column
+        final String orderBy;
+        final String[] projection;
+
+        Query(String search, PetFilter filter, String[] listProjection) {
+            this.search = search;
+            this.filter = filter;
+            orderBy = filter.getOrderBy();
+            if (Arrays.asList(listProjection).contains(orderBy)) {
+                projection = listProjection;
+            } else {
+                projection = Arrays.copyOf(listProjection, listProjection.length + 1);
+                projection[listProjection.length] = orderBy;
+            }
+        }
+    }
+
+    /**
+     * One page of pets. Page holds pets which come after the last pet of the previous page
+     * up to and including its own last pet, so it can be reloaded without touching other pages.
+     */
+    private static final class Page {
+        // Keys of the last pet of previous page, null for the first page
+        final Long afterId;
+        final String afterKey;
+        // Keys of the last pet of this page, null while this is the last page
+        Long uptoId;
+        String uptoKey;
+        Cursor cursor;
+        // Ids of pets in the cursor, in cursor order
+        long[] ids;
+        // Hashes of all loaded columns of pets, used to find out which pets have changed
+        int[] hashes;
+
+        Page(Long afterId, String afterKey) {
+            this.afterId = afterId;
+            this.afterKey = afterKey;
+        }
+
+        /**
+         * Returns new page with same key range as this one, which is not loaded yet
+         */
+        Page copyRange() {
+            Page copy = new Page(afterId, afterKey);
+            copy.uptoId = uptoId;
+            copy.uptoKey = uptoKey;
+            return copy;
+        }
+
+        /**
+         * Checks if page was released, released page has ids of its pets but not their cursor
+         */
+        boolean isReleased() {
+            return cursor == null && ids != null;
+        }
+
+        /**
+         * Closes cursor of this page, must be called on the main thread while no task runs.
+         * Rows of released page are blank, so hashes are reset and pets are compared
+         * as changed once page is loaded again.
+         */
+        void release() {
+            cursor.close();
+            cursor = null;
+            hashes = new int[ids.length];
+        }
+
+        boolean containsPet(long id) {
+            for (long petId : ids) {
+                if (petId == id) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Cursor over pets of all pages. Unlike MergeCursor it finds page of a position with binary
+     * search and it copies strings into buffers directly from page cursor windows, so reading
+     * from it doesn't allocate. Page cursors are owned by the list, so they are not closed.
+     * Rows of released pages have only _id, other columns are null. Pages can be released
+     * while the cursor is in use, so cursor of the page is looked up on every read.
+     */
+    private static final class PagesCursor extends AbstractCursor {
+
+        private final Page[] mPages;
+        // Position of the first pet of each page
+        private final int[] mStarts;
+        private final int mCount;
+        private final String[] mColumnNames;
+        private final int mIdColumnIndex;
+        private Page mPage;
+        private int mPageRow;
+
+        PagesCursor(List<Page> pages, String[] columnNames) {
+            mPages = pages.toArray(new Page[pages.size()]);
+            mStarts = new int[mPages.length];
+            int count = 0;
+            for (int i = 0; i < mPages.length; i++) {
+                mStarts[i] = count;
+                count += mPages[i].ids.length;
+            }
+            mCount = count;
+            mColumnNames = columnNames;
+            mIdColumnIndex = Arrays.asList(columnNames).indexOf(PetEntry._ID);
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            // Find the last page which starts at or before the position, empty pages start at
+            // same position as the next page so they are skipped
+            int low = 0;
+            int high = mStarts.length - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (mStarts[middle] <= newPosition) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            mPage = mPages[low];
+            mPageRow = newPosition - mStarts[low];
+            return mPage.cursor == null || mPage.cursor.moveToPosition(mPageRow);
+        }
+
+        /**
+         * Returns cursor of the current page moved to the current row, or null if page
+         * is released
+         */
+        private Cursor pageCursor() {
+            Cursor cursor = mPage.cursor;
+            if (cursor != null && cursor.getPosition() != mPageRow) {
+                cursor.moveToPosition(mPageRow);
+            }
+            return cursor;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        @Override
+        public String getString(int column) {
+            Cursor cursor = pageCursor();
+            if (cursor == null) {
+                return column == mIdColumnIndex ? String.valueOf(mPage.ids[mPageRow]) : null;
+            }
+            return cursor.getString(column);
+        }
+
+        @Override
+        public void copyStringToBuffer(int column, CharArrayBuffer buffer) {
+            Cursor cursor = pageCursor();
+            if (cursor == null) {
+                super.copyStringToBuffer(column, buffer);
+            } else {
+                cursor.copyStringToBuffer(column, buffer);
+            }
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Cursor cursor = pageCursor();
+            if (cursor == null) {
+                return column == mIdColumnIndex ? mPage.ids[mPageRow] : 0;
+            }
+            return cursor.getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Cursor cursor = pageCursor();
+            if (cursor == null) {
+                return getLong(column);
+            }
+            return cursor.getDouble(column);
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Cursor cursor = pageCursor();
+            return cursor == null ? null : cursor.getBlob(column);
+        }
+
+        @Override
+        public int getType(int column) {
+            Cursor cursor = pageCursor();
+            if (cursor == null) {
+                return column == mIdColumnIndex ? FIELD_TYPE_INTEGER : FIELD_TYPE_NULL;
+            }
+            return cursor.getType(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            Cursor cursor = pageCursor();
+            if (cursor == null) {
+                return column != mIdColumnIndex;
+            }
+            return cursor.isNull(column);
+        }
+    }
+
+    /**
+     * Loads cursors of given pages on a background thread
+     */
+    private class LoadTask extends AsyncTask<Void, Void, List<Page>> {
+
+        private final List<Page> mPagesToLoad;
+        // True if loaded page is added after loaded pages, false if it replaces them
+        private final boolean mAppend;
+        // If set, pages are already loaded and only pages affected by these pets are reloaded
+        private final Set<Long> mChangedIds;
+        // If end is above start, only released pages from start up to end are loaded again
+        private final int mRestoreStart;
+        private final int mRestoreEnd;
+        // Pages which were loaded by this task
+        private final List<Page> mLoadedPages = new ArrayList<Page>();
+        // Pages which are shown while task is running, new pages are compared to them
+        private final List<Page> mOldPages;
+        // Query of the list when task was created, background thread reads only this one
+        private final Query mLoadedQuery;
+        private Changes mChanges;
+
+        LoadTask(List<Page> pages, boolean append, Set<Long> changedIds) {
+            this(pages, append, changedIds, 0, 0);
+        }
+
+        /**
+         * Creates task which loads released pages from restoreStart up to restoreEnd again
+         */
+        LoadTask(List<Page> pages, int restoreStart, int restoreEnd) {
+            this(pages, false, null, restoreStart, restoreEnd);
+        }
+
+        private LoadTask(List<Page> pages, boolean append, Set<Long> changedIds,
+                         int restoreStart, int restoreEnd) {
+            mPagesToLoad = pages;
+            mAppend = append;
+            mChangedIds = changedIds;
+            mRestoreStart = restoreStart;
+            mRestoreEnd = restoreEnd;
+            mOldPages = new ArrayList<Page>(mPages);
+            mLoadedQuery = mQuery;
+        }
+
+        @Override
+        protected List<Page> doInBackground(Void... voids) {
+            List<Page> result = new ArrayList<Page>(mPagesToLoad);
+
+            // Find pages which held changed pets and pages which should hold them now,
+            // released pages are loaded only when they are restored
+            boolean[] reload = new boolean[result.size()];
+            if (mRestoreEnd > mRestoreStart) {
+                for (int i = mRestoreStart; i < mRestoreEnd; i++) {
+                    reload[i] = result.get(i).isReleased();
+                }
+            } else if (mChangedIds == null) {
+                for (int i = 0; i < result.size(); i++) {
+                    reload[i] = !result.get(i).isReleased();
+                }
+            } else {
+                for (long id : mChangedIds) {
+                    for (int i = 0; i < result.size(); i++) {
+                        if (result.get(i).containsPet(id)) {
+                            reload[i] = true;
+                        }
+                    }
+                    int page = findPageForPet(result, id, mLoadedQuery.orderBy);
+                    if (page >= 0) {
+                        reload[page] = true;
+                    }
+                }
+                for (int i = 0; i < result.size(); i++) {
+                    reload[i] &= !result.get(i).isReleased();
+                }
+            }
+
+            for (int i = 0; i < result.size() && !isCancelled(); i++) {
+                if (reload[i]) {
+                    // Pages which were not loaded yet are loaded in place, others are copied
+                    Page page = result.get(i).ids == null ? result.get(i) : result.get(i).copyRange();
+                    loadPage(page, mLoadedQuery);
+                    mLoadedPages.add(page);
+                    result.set(i, page);
+                }
+            }
+
+            if (isCancelled()) {
+                return result;
+            }
+            if (mAppend) {
+                // New page is added after all shown pets
+                mChanges = new Changes(null, countPets(mOldPages, 0, mOldPages.size()),
+                        result.get(0).ids.length);
+            } else {
+                mChanges = diffPages(mOldPages, result);
+            }
+            return result;
+        }
+
+        @Override
+        protected void onPostExecute(List<Page> pages) {
+            onPagesLoaded(this, pages);
+        }
+
+        @Override
+        protected void onCancelled(List<Page> pages) {
+            closePages(mLoadedPages, null);
+        }
+    }
+}
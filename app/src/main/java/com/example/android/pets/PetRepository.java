@@ -0,0 +1,217 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.res.Resources;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide source of pets for all activities. It holds the catalog page list and
+ * snapshots of recently used single pets, so recreated or reopened activities get pets from
+ * memory without querying the provider. Snapshots are kept up to date from provider change
+ * notifications: a change of one pet reloads only that pet, a change of all pets reloads
+ * observed pets and drops the rest. All methods must be called on the main thread.
+ */
+public final class PetRepository {
+
+    /**
+     * Receives snapshots of an observed pet on the main thread
+     */
+    public interface PetObserver {
+        /**
+         * @param pet current snapshot of the pet, or null if pet doesn't exist
+         */
+        void onPetChanged(long id, Pet pet);
+    }
+
+    private static PetRepository sInstance;
+
+    private final ContentResolver mResolver;
+    private final Resources mResources;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Pets are loaded one by one on this thread
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+    private final LruCache<Long, Pet> mPets;
+    private final Map<Long, List<PetObserver>> mObservers = new HashMap<Long, List<PetObserver>>();
+    // Pets which are being loaded, and ones which changed while they were loading
+    private final Set<Long> mLoading = new HashSet<Long>();
+    private final Set<Long> mStale = new HashSet<Long>();
+    private PetPageList mCatalog;
+
+    private PetRepository(Context context) {
+        mResolver = context.getContentResolver();
+        mResources = context.getResources();
+        mPets = new LruCache<Long, Pet>(mResources.getInteger(R.integer.config_repository_pet_count));
+        mResolver.registerContentObserver(PetEntry.CONTENT_URI, true,
+                new ContentObserver(mMainHandler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        onChange(selfChange, null);
+                    }
+
+                    @Override
+                    public void onChange(boolean selfChange, Uri uri) {
+                        onPetsChanged(uri);
+                    }
+                });
+    }
+
+    /**
+     * Returns repository shared by all activities
+     */
+    public static synchronized PetRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns list of pets shown in the catalog. List lives as long as the process, so
+     * its loaded pages, search query and filter are kept when catalog is recreated.
+     */
+    public PetPageList getCatalog() {
+        if (mCatalog == null) {
+            // Without filter pets are listed by name from summary, which is read only from its index
+            String[] projection = {PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED};
+            mCatalog = new PetPageList(mResolver, projection,
+                    mResources.getInteger(R.integer.config_catalog_page_size),
+                    mResources.getInteger(R.integer.config_catalog_prefetch_distance),
+                    mResources.getInteger(R.integer.config_catalog_window_size));
+        }
+        return mCatalog;
+    }
+
+    /**
+     * Starts observing a pet. If it is in memory, observer gets it right away, otherwise
+     * it is loaded in background. Observer then gets every change of the pet.
+     */
+    public void observePet(long id, PetObserver observer) {
+        List<PetObserver> observers = mObservers.get(id);
+        if (observers == null) {
+            observers = new ArrayList<PetObserver>();
+            mObservers.put(id, observers);
+        }
+        observers.add(observer);
+
+        Pet pet = mPets.get(id);
+        if (pet != null) {
+            observer.onPetChanged(id, pet);
+        } else {
+            loadPet(id);
+        }
+    }
+
+    public void removeObserver(long id, PetObserver observer) {
+        List<PetObserver> observers = mObservers.get(id);
+        if (observers != null) {
+            observers.remove(observer);
+            if (observers.isEmpty()) {
+                mObservers.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Called when pets change. Snapshot of a single changed pet is loaded again, if it is in
+     * memory or observed. If all pets could have changed, observed pets are loaded again and
+     * all other snapshots are dropped.
+     */
+    private void onPetsChanged(Uri uri) {
+        long id = -1;
+        if (uri != null && uri.getPathSegments().size() == 2
+                && uri.getPathSegments().get(0).equals(PetContract.PATH_PETS)) {
+            try {
+                id = ContentUris.parseId(uri);
+            } catch (NumberFormatException e) {
+                id = -1;
+            }
+        }
+
+        if (id >= 0) {
+            if (mPets.get(id) != null || mObservers.containsKey(id)) {
+                loadPet(id);
+            }
+            return;
+        }
+        mPets.evictAll();
+        for (long observedId : mObservers.keySet()) {
+            loadPet(observedId);
+        }
+    }
+
+    /**
+     * Loads snapshot of a pet in background and delivers it to its observers. If pet is
+     * already loading, it is loaded once more after that, since loaded values may be old.
+     */
+    private void loadPet(final long id) {
+        if (!mLoading.add(id)) {
+            mStale.add(id);
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Pet pet = null;
+                Cursor cursor = mResolver.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                        Pet.PROJECTION, null, null, null);
+                if (cursor != null) {
+                    try {
+                        if (cursor.moveToFirst()) {
+                            pet = Pet.fromCursor(cursor);
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+
+                final Pet loadedPet = pet;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPetLoaded(id, loadedPet);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPetLoaded(long id, Pet pet) {
+        mLoading.remove(id);
+        if (mStale.remove(id)) {
+            loadPet(id);
+            return;
+        }
+
+        if (pet != null) {
+            mPets.put(id, pet);
+        } else {
+            mPets.remove(id);
+        }
+        List<PetObserver> observers = mObservers.get(id);
+        if (observers != null) {
+            for (PetObserver observer : new ArrayList<PetObserver>(observers)) {
+                observer.onPetChanged(id, pet);
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs inserts, updates and deletes of pets on a single background thread, in the order they
+ * were requested, and reports their results on the main thread.
+ * Update of a pet which is still waiting in the queue is merged with the new one, so repeated
+ * saves of the same pet write it only once. Merge is done only when no other write which can
+ * touch the pet was queued after the waiting update, so a delete is never overtaken.
+ */
+public final class PetWriteExecutor {
+
+    private static final String TAG = PetWriteExecutor.class.getSimpleName();
+
+    /**
+     * Receives result of a write on the main thread
+     */
+    public interface Callback {
+        /**
+         * @param uri for insert uri of the new pet, otherwise uri of the write,
+         *            null if insert failed
+         * @param count number of inserted, updated or deleted pets, 0 if write failed
+         */
+        void onWriteDone(Uri uri, int count);
+    }
+
+    /**
+     * Write which is not a single insert, update or delete, like insert of generated pets
+     */
+    public interface Operation {
+        /**
+         * Runs on the background thread
+         * @return number of changed pets
+         */
+        int run(ContentResolver resolver);
+    }
+
+    private static final int INSERT = 0;
+    private static final int UPDATE = 1;
+    private static final int DELETE = 2;
+    private static final int OPERATION = 3;
+
+    private static PetWriteExecutor sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+    // Writes which are not started yet, every one has its own task in executor
+    private final ArrayDeque<Write> mPending = new ArrayDeque<Write>();
+
+    private final Runnable mRunNext = new Runnable() {
+        @Override
+        public void run() {
+            Write write;
+            synchronized (mPending) {
+                write = mPending.poll();
+            }
+            runWrite(write);
+        }
+    };
+
+    private PetWriteExecutor(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Returns executor shared by all activities, so writes are ordered across them
+     */
+    public static synchronized PetWriteExecutor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriteExecutor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public void insert(Uri uri, ContentValues values, Callback callback) {
+        enqueue(new Write(INSERT, uri, values, null, null), callback);
+    }
+
+    /**
+     * Updates pets, if same pet uri is already waiting for update values are merged into it
+     */
+    public void update(Uri uri, ContentValues values, Callback callback) {
+        enqueue(new Write(UPDATE, uri, values, null, null), callback);
+    }
+
+    public void delete(Uri uri, String selection, String[] selectionArgs, Callback callback) {
+        enqueue(new Write(DELETE, uri, null, selection, selectionArgs), callback);
+    }
+
+    /**
+     * Runs operation in order with other writes, it is treated as a write to all pets
+     */
+    public void execute(Operation operation, Callback callback) {
+        Write write = new Write(OPERATION, PetEntry.CONTENT_URI, null, null, null);
+        write.operation = operation;
+        enqueue(write, callback);
+    }
+
+    private void enqueue(Write write, Callback callback) {
+        synchronized (mPending) {
+            if (write.type == UPDATE && isPetUri(write.uri)) {
+                Write pending = findMergeableUpdate(write.uri);
+                if (pending != null) {
+                    pending.values.putAll(write.values);
+                    pending.addCallback(callback);
+                    return;
+                }
+            }
+            write.addCallback(callback);
+            mPending.add(write);
+        }
+        mExecutor.execute(mRunNext);
+    }
+
+    /**
+     * Returns waiting update of given pet if no write which can change the pet is queued
+     * after it, otherwise null. Must be called with lock of pending writes.
+     */
+    private Write findMergeableUpdate(Uri uri) {
+        Iterator<Write> iterator = mPending.descendingIterator();
+        while (iterator.hasNext()) {
+            Write pending = iterator.next();
+            if (pending.uri.equals(uri)) {
+                return pending.type == UPDATE ? pending : null;
+            }
+            // Write to all pets can change this one as well
+            if (!isPetUri(pending.uri)) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private void runWrite(final Write write) {
+        Uri resultUri = null;
+        int count = 0;
+        try {
+            switch (write.type) {
+                case INSERT:
+                    resultUri = mResolver.insert(write.uri, write.values);
+                    count = resultUri != null ? 1 : 0;
+                    break;
+                case UPDATE:
+                    count = mResolver.update(write.uri, write.values, null, null);
+                    resultUri = write.uri;
+                    break;
+                case DELETE:
+                    count = mResolver.delete(write.uri, write.selection, write.selectionArgs);
+                    resultUri = write.uri;
+                    break;
+                case OPERATION:
+                    count = write.operation.run(mResolver);
+                    resultUri = write.uri;
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // Provider rejects invalid values with exception, it is reported as failed write
+            Log.e(TAG, "Failed to write " + write.uri, e);
+            resultUri = null;
+            count = 0;
+        }
+
+        final Uri uri = resultUri;
+        final int rows = count;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Callback callback : write.callbacks) {
+                    callback.onWriteDone(uri, rows);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks if uri is uri of a single pet
+     */
+    private static boolean isPetUri(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.size() == 2 && PetContract.CONTENT_AUTHORITY.equals(uri.getAuthority())
+                && PetContract.PATH_PETS.equals(segments.get(0))
+                && TextUtils.isDigitsOnly(segments.get(1));
+    }
+
+    private static final class Write {
+        final int type;
+        final Uri uri;
+        final ContentValues values;
+        final String selection;
+        final String[] selectionArgs;
+        final List<Callback> callbacks = new ArrayList<Callback>(1);
+        Operation operation;
+
+        Write(int type, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            this.type = type;
+            this.uri = uri;
+            // Copy values, so caller can't change them while they wait in the queue
+            this.values = values == null ? null : new ContentValues(values);
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+        }
+
+        void addCallback(Callback callback) {
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Immutable snapshot of one pet row
+ */
+public final class Pet {
+
+    // Columns read by fromCursor(), in this order
+    public static final String[] PROJECTION = {PetEntry._ID, PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT};
+
+    private final long mId;
+    private final String mName;
+    private final String mBreed;
+    private final int mGender;
+    private final int mWeight;
+
+    public Pet(long id, String name, String breed, int gender, int weight) {
+        mId = id;
+        mName = name;
+        mBreed = breed;
+        mGender = gender;
+        mWeight = weight;
+    }
+
+    /**
+     * Reads pet from current row of cursor queried with {@link #PROJECTION}
+     */
+    public static Pet fromCursor(Cursor cursor) {
+        return new Pet(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                cursor.getInt(3), cursor.getInt(4));
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getBreed() {
+        return mBreed;
+    }
+
+    public int getGender() {
+        return mGender;
+    }
+
+    public int getWeight() {
+        return mWeight;
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Batch of new pets packed into a single byte array, inserted with
+ * {@link PetContract#METHOD_INSERT_PETS} provider call. Genders and weights are kept in
+ * primitive columns and names and breeds as length prefixed UTF-8 strings, so neither side
+ * boxes a value or builds ContentValues per pet, and the whole batch is one byte array
+ * in the Parcel.
+ *
+ * Layout, big endian: pet count, gender of every pet, weight of every pet, and then name
+ * and breed of every pet, each as byte length followed by UTF-8 bytes. Null breed has
+ * length -1. Whole batch goes through a single binder transaction, which is limited to 1MB,
+ * so batches should stay at tens of thousands of pets.
+ */
+public final class PetBatch {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private int mSize;
+    private int[] mGenders;
+    private int[] mWeights;
+    private String[] mNames;
+    private String[] mBreeds;
+
+    /**
+     * Constructs an empty batch with room for given number of pets, it grows if needed
+     */
+    public PetBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mGenders = new int[capacity];
+        mWeights = new int[capacity];
+        mNames = new String[capacity];
+        mBreeds = new String[capacity];
+    }
+
+    /**
+     * Adds a pet to the batch. Values are validated by the provider when batch is inserted.
+     */
+    public void add(String name, String breed, int gender, int weight) {
+        if (mSize == mGenders.length) {
+            int capacity = mSize * 2;
+            mGenders = Arrays.copyOf(mGenders, capacity);
+            mWeights = Arrays.copyOf(mWeights, capacity);
+            mNames = Arrays.copyOf(mNames, capacity);
+            mBreeds = Arrays.copyOf(mBreeds, capacity);
+        }
+        mGenders[mSize] = gender;
+        mWeights[mSize] = weight;
+        mNames[mSize] = name;
+        mBreeds[mSize] = breed;
+        mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Removes all pets from the batch, so it can be reused
+     */
+    public void clear() {
+        Arrays.fill(mNames, 0, mSize, null);
+        Arrays.fill(mBreeds, 0, mSize, null);
+        mSize = 0;
+    }
+
+    /**
+     * Inserts all pets of the batch in a single transaction, either all of them or none
+     * @return number of inserted pets
+     * @throws IllegalArgumentException if some pet is not valid
+     */
+    public int insert(ContentResolver resolver) {
+        Bundle extras = new Bundle();
+        extras.putByteArray(PetContract.KEY_PETS_BATCH, toByteArray());
+        Bundle result = resolver.call(PetContract.BASE_CONTENT_URI,
+                PetContract.METHOD_INSERT_PETS, null, extras);
+        return result == null ? 0 : result.getInt(PetContract.KEY_PETS_COUNT);
+    }
+
+    /**
+     * Packs the batch into its binary layout
+     */
+    public byte[] toByteArray() {
+        byte[][] names = new byte[mSize][];
+        byte[][] breeds = new byte[mSize][];
+        // Count, genders and weights, and length of every string
+        int length = 4 + mSize * 4 * 4;
+        for (int i = 0; i < mSize; i++) {
+            if (mNames[i] != null) {
+                names[i] = mNames[i].getBytes(UTF_8);
+                length += names[i].length;
+            }
+            if (mBreeds[i] != null) {
+                breeds[i] = mBreeds[i].getBytes(UTF_8);
+                length += breeds[i].length;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(mSize);
+        buffer.asIntBuffer().put(mGenders, 0, mSize);
+        buffer.position(buffer.position() + mSize * 4);
+        buffer.asIntBuffer().put(mWeights, 0, mSize);
+        buffer.position(buffer.position() + mSize * 4);
+        for (int i = 0; i < mSize; i++) {
+            putString(buffer, names[i]);
+            putString(buffer, breeds[i]);
+        }
+        return buffer.array();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Unpacks batch from its binary layout
+     * @throws IllegalArgumentException if data doesn't have the layout of a batch
+     */
+    static PetBatch fromByteArray(byte[] data) {
+        if (data == null) {
+            throw new IllegalArgumentException("Pet batch is missing");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try {
+            int size = buffer.getInt();
+            if (size < 0 || size > (data.length - 4) / 16) {
+                throw new IllegalArgumentException("Invalid size of pet batch: " + size);
+            }
+            PetBatch batch = new PetBatch(size);
+            buffer.asIntBuffer().get(batch.mGenders, 0, size);
+            buffer.position(buffer.position() + size * 4);
+            buffer.asIntBuffer().get(batch.mWeights, 0, size);
+            buffer.position(buffer.position() + size * 4);
+            for (int i = 0; i < size; i++) {
+                batch.mNames[i] = getString(buffer);
+                batch.mBreeds[i] = getString(buffer);
+            }
+            batch.mSize = size;
+            return batch;
+        } catch (RuntimeException e) {
+            // BufferUnderflowException or negative string length of truncated data
+            if (e instanceof IllegalArgumentException) {
+                throw e;
+            }
+            throw new IllegalArgumentException("Pet batch is truncated", e);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    int getGender(int index) {
+        return mGenders[index];
+    }
+
+    int getWeight(int index) {
+        return mWeights[index];
+    }
+
+    String getName(int index) {
+        return mNames[index];
+    }
+
+    String getBreed(int index) {
+        return mBreeds[index];
+    }
+}
@@ -17,6 +17,54 @@ public final class PetContract {
     public static final String CONTENT_AUTHORITY = "com.example.android.pets";
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     public static final String PATH_PETS = "pets";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_BREEDS = "breeds";
+    public static final String PATH_SUMMARY = "summary";
+    public static final String PATH_CHANGES = "changes";
+
+    // Provider call() method which returns hit and miss counters of the pet row cache
+    public static final String METHOD_ROW_CACHE_STATS = "row_cache_stats";
+    // Keys of the Bundle returned by METHOD_ROW_CACHE_STATS
+    public static final String KEY_CACHE_HITS = "hits";
+    public static final String KEY_CACHE_MISSES = "misses";
+    public static final String KEY_CACHE_SIZE = "size";
+    public static final String KEY_CACHE_MAX_SIZE = "max_size";
+
+    /**
+     * Provider call() method which returns latency stats of provider operations. Returned bundle
+     * holds a bundle for every recorded metric, like "query_pet_id" or "transaction", with
+     * KEY_STATS_* values. If arg is {@link #ARG_STATS_RESET} stats are cleared after reading.
+     * Percentiles are upper bounds of histogram buckets, which are powers of two microseconds.
+     */
+    public static final String METHOD_STATS = "stats";
+    public static final String ARG_STATS_RESET = "reset";
+    public static final String KEY_STATS_COUNT = "count";
+    public static final String KEY_STATS_ROWS = "rows";
+    public static final String KEY_STATS_TOTAL_MICROS = "total_us";
+    public static final String KEY_STATS_MAX_MICROS = "max_us";
+    public static final String KEY_STATS_P50_MICROS = "p50_us";
+    public static final String KEY_STATS_P99_MICROS = "p99_us";
+    public static final String KEY_STATS_BUCKETS = "buckets";
+
+    /**
+     * Provider call() method which inserts pets of a {@link PetBatch} in a single transaction.
+     * Packed batch is passed in extras under {@link #KEY_PETS_BATCH}, returned bundle holds
+     * number of inserted pets under {@link #KEY_PETS_COUNT}.
+     */
+    public static final String METHOD_INSERT_PETS = "insert_pets";
+    public static final String KEY_PETS_BATCH = "pets";
+    public static final String KEY_PETS_COUNT = "count";
+
+    /**
+     * Provider call() method which compacts the database file. Database which is not yet in
+     * incremental auto vacuum mode is rewritten once with VACUUM, which blocks all writers
+     * for as long as it takes on big database, so it must be run only on user request and
+     * off the main thread. Returned bundle holds {@link #KEY_COMPACTED}, false if there was not
+     * enough free space to rewrite the database.
+     */
+    public static final String METHOD_COMPACT_DATABASE = "compact_database";
+    public static final String KEY_COMPACTED = "compacted";
 
     // Inner class that defines constants for pets table
     public static abstract class PetEntry implements BaseColumns {
@@ -24,6 +72,43 @@ public final class PetContract {
         // Content URI to access pets data in the content provider
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        /**
+         * Query parameters for keyset paging of {@link #CONTENT_URI}.
+         * Page is sorted by {@link #QUERY_PARAM_ORDER_BY} column (_id, name or weight, _id if
+         * not set) and then by _id. It starts after row with given after_* keys and ends with row
+         * with given upto_* keys or after {@link #QUERY_PARAM_LIMIT} rows. When pets are sorted
+         * by name or weight, both that column and _id of the row must be given.
+         */
+        public static final String QUERY_PARAM_LIMIT = "limit";
+        public static final String QUERY_PARAM_ORDER_BY = "order_by";
+        public static final String QUERY_PARAM_AFTER_ID = "after_id";
+        public static final String QUERY_PARAM_AFTER_NAME = "after_name";
+        public static final String QUERY_PARAM_UPTO_ID = "upto_id";
+        public static final String QUERY_PARAM_UPTO_NAME = "upto_name";
+        public static final String QUERY_PARAM_AFTER_WEIGHT = "after_weight";
+        public static final String QUERY_PARAM_UPTO_WEIGHT = "upto_weight";
+
+        /**
+         * Query parameters which filter {@link #CONTENT_URI}, by gender, weight range and breed.
+         * Filtered pets are paged like all pets. {@link #CONTENT_SUMMARY_URI} can be filtered
+         * only by breed.
+         */
+        public static final String QUERY_PARAM_GENDER = "gender";
+        public static final String QUERY_PARAM_MIN_WEIGHT = "min_weight";
+        public static final String QUERY_PARAM_MAX_WEIGHT = "max_weight";
+        public static final String QUERY_PARAM_BREED = "breed";
+
+        /**
+         * Content URI for list of pets with only _id, name and breed, sorted by name.
+         * It is read only from an index, without touching rows of pets table, and supports
+         * same keyset paging parameters as {@link #CONTENT_URI}, ordered only by name.
+         */
+        public static final Uri CONTENT_SUMMARY_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SUMMARY);
+
+        // Content URI for full text search of pets by name and breed, only best ranked
+        // QUERY_PARAM_LIMIT results are returned if the limit is set
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of pets
          */
@@ -36,6 +121,15 @@ public final class PetContract {
         public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" +
                 CONTENT_AUTHORITY + "/" + PATH_PETS;
 
+        /**
+         * Stream types in which {@link #CONTENT_URI} can be opened with
+         * ContentResolver.openTypedAssetFileDescriptor() to export all pets, and imported
+         * back with PetImporter. CSV has a header row, NDJSON has one JSON object per line.
+         * Both have name, breed, gender and weight of every pet, without _id.
+         */
+        public static final String CSV_TYPE = "text/csv";
+        public static final String NDJSON_TYPE = "application/x-ndjson";
+
         // String constant for table name
         public static final String TABLE_NAME = "pets";
 
@@ -51,6 +145,25 @@ public final class PetContract {
         public static final int GENDER_MALE = 1;
         public static final int GENDER_FEMALE = 2;
 
+        /**
+         * Builds URI which returns pets whose name or breed have words starting with words
+         * of given query, pets whose name has all the words come first and newest pets first
+         * within each group. Query without words returns no pets.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_SEARCH_URI.buildUpon().appendPath(query).build();
+        }
+
+        /**
+         * Builds search URI like {@link #buildSearchUri(String)} which returns at most
+         * limit best ranked pets
+         */
+        public static Uri buildSearchUri(String query, int limit) {
+            return CONTENT_SEARCH_URI.buildUpon().appendPath(query)
+                    .appendQueryParameter(QUERY_PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
         /**
          * Checks if provided value is one of valid gender values
          */
@@ -62,4 +175,79 @@ public final class PetContract {
         }
 
     }
+
+    /**
+     * Aggregated statistics of pets, read only. Statistics are kept up to date on every change
+     * of pets, so reading them costs the same no matter how many pets there are.
+     */
+    public static abstract class PetStatsEntry {
+
+        // Number of pets and their average weight for each gender, one row per gender
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+
+        // Number of pets and their average weight for each breed, most common breed first.
+        // Pets with unknown breed are counted in row with null breed.
+        public static final Uri CONTENT_BREEDS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_BREEDS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} and {@link #CONTENT_BREEDS_URI}
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" +
+                CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_STATS;
+
+        // String constants for columns of statistics, rows also have gender or breed column
+        public static final String COLUMN_PET_COUNT = "pet_count"; //INTEGER
+        public static final String COLUMN_AVERAGE_WEIGHT = "average_weight"; //REAL
+    }
+
+    /**
+     * Journal of changes of pets, for consumers which mirror pets table and sync only changed
+     * pets. Every insert, update and delete of a pet adds an entry with sequence number greater
+     * than all previous ones. Consumer scans pets once, remembering sequence of the newest
+     * entry read before the scan, and from then on reads only entries after it.
+     *
+     * Journal is compacted: only the newest entry of each pet is kept, so consumer must treat
+     * insert and update both as "pet now has current values, read it", and delete of an unknown
+     * pet as nothing. Entries of deleted pets are dropped when journal grows too big, in which
+     * case consumer whose sequence is older than dropped entries gets an
+     * {@link #OPERATION_RESYNC} entry and must scan pets again.
+     */
+    public static abstract class PetChangeEntry {
+
+        // Entries with sequence after QUERY_PARAM_SINCE, in sequence order unless sort order
+        // is given, at most QUERY_PARAM_LIMIT of them
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI,
+                PATH_CHANGES);
+        public static final String QUERY_PARAM_SINCE = "since";
+        public static final String QUERY_PARAM_LIMIT = "limit";
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of changes
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" +
+                CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_CHANGES;
+
+        // String constants for columns of change entries
+        public static final String COLUMN_SEQUENCE = "seq"; //INTEGER
+        public static final String COLUMN_PET_ID = "pet_id"; //INTEGER, null for OPERATION_RESYNC
+        public static final String COLUMN_OPERATION = "operation"; //INTEGER
+
+        // Possible values of operation
+        public static final int OPERATION_INSERT = 1;
+        public static final int OPERATION_UPDATE = 2;
+        public static final int OPERATION_DELETE = 3;
+        // Journal keeps only its newest entries. Resync entry has sequence of the newest dropped
+        // one, consumer which gets it has missed changes and has to scan all pets again.
+        public static final int OPERATION_RESYNC = 4;
+
+        /**
+         * Returns uri of entries after given sequence, at most limit of them
+         */
+        public static Uri buildChangesUri(long since, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_SINCE, String.valueOf(since))
+                    .appendQueryParameter(QUERY_PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+    }
 }
@@ -1,10 +1,19 @@
 package com.example.android.pets.data;
 
+import android.annotation.TargetApi;
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
 
+import java.io.File;
+
 /**
  * Created by dzenang on 21.3.2017.
  */
@@ -12,9 +21,12 @@ import com.example.android.pets.data.PetContract.PetEntry;
 public class PetDBHelper extends SQLiteOpenHelper {
 
     // Name of database file
-    private static final String DATABASE_NAME = "shelter.db";
-    // Database version, if you change schema you must increment database version
-    private static final int DATABASE_VERSION = 1;
+    public static final String DATABASE_NAME = "shelter.db";
+    // Database version, if you change schema you must add migration step in PetMigrations
+    // and set database version to its version
+    private static final int DATABASE_VERSION = 8;
+    // Version of schema created by SQL_CREATE_PETS_TABLE, later versions are reached by migrations
+    private static final int BASE_DATABASE_VERSION = 1;
     // String that contains SQL statement to create pets table
     private static final String SQL_CREATE_PETS_TABLE = "CREATE TABLE " + PetEntry.TABLE_NAME + " ("
             + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT" + ", "
@@ -23,17 +35,210 @@ public class PetDBHelper extends SQLiteOpenHelper {
             + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL" + ", "
             + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0" + ");";
 
+    // Default number of WAL pages after which SQLite checkpoints database on commit
+    public static final int DEFAULT_WAL_AUTOCHECKPOINT_PAGES = 1000;
+    // Default size limit of WAL file after checkpoint, -1 means no limit
+    public static final int DEFAULT_WAL_SIZE_LIMIT_BYTES = -1;
+
+    // Value of auto_vacuum pragma for incremental mode
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    // Databases up to this size are switched to incremental auto vacuum when they are opened,
+    // which is the case for new ones. Bigger ones are switched only when user compacts database.
+    private static final long MAX_OPEN_VACUUM_BYTES = 1024 * 1024;
+
+    private final boolean mWriteAheadLogging;
+    private final int mWalAutoCheckpointPages;
+    private final int mWalSizeLimitBytes;
+
     public PetDBHelper(Context context) {
+        this(context, false, DEFAULT_WAL_AUTOCHECKPOINT_PAGES, DEFAULT_WAL_SIZE_LIMIT_BYTES);
+    }
+
+    /**
+     * Creates helper which can open database in write-ahead logging mode. In WAL mode one writer
+     * and several readers can use database at the same time, because database object keeps pool
+     * of connections and queries which are not part of transaction run on reader connections.
+     *
+     * @param writeAheadLogging      true to open database in WAL mode
+     * @param walAutoCheckpointPages number of WAL pages after which database is checkpointed,
+     *                               0 or less turns off automatic checkpoints
+     * @param walSizeLimitBytes      size WAL file is truncated to after checkpoint, -1 for no limit
+     */
+    public PetDBHelper(Context context, boolean writeAheadLogging, int walAutoCheckpointPages,
+                       int walSizeLimitBytes) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (PetMigrations.latestVersion() != DATABASE_VERSION) {
+            throw new IllegalStateException("Database version " + DATABASE_VERSION
+                    + " doesn't match latest migration " + PetMigrations.latestVersion());
+        }
+        mWriteAheadLogging = writeAheadLogging;
+        mWalAutoCheckpointPages = walAutoCheckpointPages;
+        mWalSizeLimitBytes = walSizeLimitBytes;
+
+        if (mWriteAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /**
+     * Returns true if database is opened in write-ahead logging mode
+     */
+    public boolean isWriteAheadLogging() {
+        return mWriteAheadLogging;
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL(SQL_CREATE_PETS_TABLE);
+        // New database goes through same migration steps as upgraded one, so both end up with
+        // identical schema
+        PetMigrations.migrate(sqLiteDatabase, BASE_DATABASE_VERSION, DATABASE_VERSION);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        PetMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (mWriteAheadLogging) {
+            configureWal(db);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Before Jelly Bean there is no onConfigure() so WAL is turned on when database is opened
+        if (mWriteAheadLogging && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+            configureWal(db);
+        }
+        // Android creates its metadata table before any callback, so even new database needs
+        // VACUUM to change auto vacuum mode. Small database is rewritten in no time.
+        if (!db.isReadOnly() && getDatabaseBytes(db) <= MAX_OPEN_VACUUM_BYTES) {
+            enableIncrementalVacuum(db);
+        }
+    }
+
+    /**
+     * Switches database to incremental auto vacuum, so pages freed by deletes can be returned
+     * to file system with incremental_vacuum pragma. Mode of existing database changes only
+     * after full VACUUM, which rewrites whole database under exclusive lock and needs free
+     * space for a copy of it, so on big database this must run only on user request, on
+     * a background thread outside of any transaction. It is skipped if there is not enough
+     * free space.
+     * @return true if database is in incremental mode
+     */
+    boolean enableIncrementalVacuum(SQLiteDatabase db) {
+        if (isIncrementalVacuum(db)) {
+            return true;
+        }
+        // VACUUM copies database into temporary file and then back through the journal
+        if (new File(db.getPath()).getUsableSpace() < 2 * getDatabaseBytes(db)) {
+            return false;
+        }
+        db.execSQL("PRAGMA auto_vacuum=" + AUTO_VACUUM_INCREMENTAL);
+        db.execSQL("VACUUM");
+        return true;
+    }
+
+    /**
+     * Returns true if database is in incremental auto vacuum mode, so its free pages can be
+     * returned to file system step by step
+     */
+    boolean isIncrementalVacuum(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    /**
+     * Returns size of database file in bytes, without WAL
+     */
+    private static long getDatabaseBytes(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+    /**
+     * Returns all free pages to file system, at most pagesPerStep pages in each write
+     * transaction, so writers waiting for database are let in between steps
+     */
+    void vacuumIncrementally(SQLiteDatabase db, int pagesPerStep) {
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        while (freePages > 0) {
+            runPragma(db, "PRAGMA incremental_vacuum(" + pagesPerStep + ")");
+            long remaining = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            // Stop if nothing was freed, database is not in incremental mode
+            if (remaining >= freePages) {
+                break;
+            }
+            freePages = remaining;
+        }
+    }
+
+    /**
+     * Compacts change journal in one write transaction, so it holds at most the newest
+     * keepEntries sequence numbers. All older entries are dropped and a single resync entry
+     * is kept at the newest dropped sequence, so consumers which are behind it know they missed
+     * changes. Entries are dropped by range of their sequence, which is the rowid of the journal,
+     * so compaction costs only the dropped entries and the journal doesn't grow with the table.
+     * @return number of dropped entries, without the previous resync entry
+     */
+    int compactChangeJournal(SQLiteDatabase db, int keepEntries) {
+        String table = PetMigrations.TABLE_PET_CHANGES;
+        String resync = String.valueOf(PetChangeEntry.OPERATION_RESYNC);
+        int dropped = 0;
+        db.beginTransactionNonExclusive();
+        try {
+            long droppedSequence = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX("
+                    + PetChangeEntry.COLUMN_SEQUENCE + "), 0) FROM " + table, null) - keepEntries;
+            long oldestSequence = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MIN("
+                    + PetChangeEntry.COLUMN_SEQUENCE + "), 0) FROM " + table, null);
+            // Nothing is dropped if the oldest entry, which may be the resync entry of previous
+            // compaction, is not older than the newest entry to drop
+            if (droppedSequence > oldestSequence) {
+                String[] args = {String.valueOf(droppedSequence)};
+                dropped = db.delete(table, PetChangeEntry.COLUMN_SEQUENCE + " <= ? AND "
+                        + PetChangeEntry.COLUMN_OPERATION + " != " + resync, args);
+                db.delete(table, PetChangeEntry.COLUMN_SEQUENCE + " <= ?", args);
+                ContentValues values = new ContentValues();
+                values.put(PetChangeEntry.COLUMN_SEQUENCE, droppedSequence);
+                values.putNull(PetChangeEntry.COLUMN_PET_ID);
+                values.put(PetChangeEntry.COLUMN_OPERATION, PetChangeEntry.OPERATION_RESYNC);
+                db.insertOrThrow(table, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return dropped;
+    }
+
+    /**
+     * Sets WAL pragmas for given database.
+     * In WAL mode synchronous NORMAL is still safe from corruption, commits are only not synced
+     * until next checkpoint, so we don't pay for fsync on every transaction.
+     * Auto checkpoint and journal size limit keep WAL file bounded under sustained writes.
+     */
+    private void configureWal(SQLiteDatabase db) {
+        runPragma(db, "PRAGMA synchronous=NORMAL");
+        runPragma(db, "PRAGMA wal_autocheckpoint=" + mWalAutoCheckpointPages);
+        runPragma(db, "PRAGMA journal_size_limit=" + mWalSizeLimitBytes);
+    }
 
+    /**
+     * Runs pragma statement, some pragmas return row so they can't be run with execSQL()
+     */
+    static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 }
@@ -0,0 +1,203 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Reads and writes pets one record at a time as CSV (RFC 4180, with header) or as
+ * newline delimited JSON, so export and import never hold more than one pet in memory.
+ * Pets are written without _id, imported pets get new ids. Null and empty breed stay
+ * distinct, null is empty CSV field or JSON null and empty breed is quoted empty string.
+ */
+final class PetDataFormat {
+
+    // Columns written for every pet, in this order
+    static final String[] COLUMNS = {PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT};
+
+    // Private constructor to prevent accidental instantiation
+    private PetDataFormat() {}
+
+    static void writeCsvHeader(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Writes one CSV record, null breed is written as empty field and empty breed as ""
+     */
+    static void writeCsvPet(Writer writer, String name, String breed, int gender, int weight)
+            throws IOException {
+        writeCsvField(writer, name);
+        writer.write(',');
+        writeCsvField(writer, breed);
+        writer.write(',');
+        writer.write(Integer.toString(gender));
+        writer.write(',');
+        writer.write(Integer.toString(weight));
+        writer.write("\r\n");
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        // Empty string is quoted, so it is not read back as null
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Writes one JSON object on its own line, null breed is written as JSON null
+     */
+    static void writeJsonPet(Writer writer, String name, String breed, int gender, int weight)
+            throws IOException {
+        writer.write("{\"" + PetEntry.COLUMN_PET_NAME + "\":");
+        writer.write(JSONObject.quote(name));
+        writer.write(",\"" + PetEntry.COLUMN_PET_BREED + "\":");
+        writer.write(breed == null ? "null" : JSONObject.quote(breed));
+        writer.write(",\"" + PetEntry.COLUMN_PET_GENDER + "\":");
+        writer.write(Integer.toString(gender));
+        writer.write(",\"" + PetEntry.COLUMN_PET_WEIGHT + "\":");
+        writer.write(Integer.toString(weight));
+        writer.write("}\n");
+    }
+
+    /**
+     * Reads next CSV record into fields, quoted fields can span several lines. Empty field
+     * which is not quoted is read as null.
+     * @return false if there are no more records
+     */
+    static boolean readCsvRecord(Reader reader, List<String> fields, StringBuilder field)
+            throws IOException {
+        fields.clear();
+        field.setLength(0);
+        boolean quoted = false;
+        boolean inQuotes = false;
+        int c = reader.read();
+        if (c == -1) {
+            return false;
+        }
+        while (true) {
+            if (inQuotes) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted CSV field");
+                } else if (c == '"') {
+                    reader.mark(1);
+                    int next = reader.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        inQuotes = false;
+                        reader.reset();
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0 && !quoted) {
+                inQuotes = true;
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(readField(field, quoted));
+                field.setLength(0);
+                quoted = false;
+            } else if (c == '\n' || c == -1) {
+                fields.add(readField(field, quoted));
+                return true;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+    }
+
+    private static String readField(StringBuilder field, boolean quoted) {
+        return field.length() == 0 && !quoted ? null : field.toString();
+    }
+
+    /**
+     * Puts values of CSV record into pet values, by column names from the header.
+     * Columns which are not pet columns are ignored.
+     */
+    static void readCsvPet(List<String> header, List<String> fields, ContentValues values)
+            throws IOException {
+        values.clear();
+        for (int i = 0; i < header.size() && i < fields.size(); i++) {
+            String column = header.get(i);
+            String value = fields.get(i);
+            if (PetEntry.COLUMN_PET_NAME.equals(column)
+                    || PetEntry.COLUMN_PET_BREED.equals(column)) {
+                values.put(column, value);
+            } else if (PetEntry.COLUMN_PET_GENDER.equals(column)
+                    || PetEntry.COLUMN_PET_WEIGHT.equals(column)) {
+                values.put(column, parseInt(column, value));
+            }
+        }
+    }
+
+    /**
+     * Puts values of one JSON line into pet values, other keys are ignored
+     */
+    static void readJsonPet(String line, ContentValues values) throws IOException {
+        values.clear();
+        try {
+            JSONObject json = new JSONObject(line);
+            if (json.has(PetEntry.COLUMN_PET_NAME)) {
+                values.put(PetEntry.COLUMN_PET_NAME, json.getString(PetEntry.COLUMN_PET_NAME));
+            }
+            if (json.has(PetEntry.COLUMN_PET_BREED)) {
+                values.put(PetEntry.COLUMN_PET_BREED, json.isNull(PetEntry.COLUMN_PET_BREED)
+                        ? null : json.getString(PetEntry.COLUMN_PET_BREED));
+            }
+            if (json.has(PetEntry.COLUMN_PET_GENDER)) {
+                values.put(PetEntry.COLUMN_PET_GENDER, json.getInt(PetEntry.COLUMN_PET_GENDER));
+            }
+            if (json.has(PetEntry.COLUMN_PET_WEIGHT)) {
+                values.put(PetEntry.COLUMN_PET_WEIGHT, json.getInt(PetEntry.COLUMN_PET_WEIGHT));
+            }
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON pet: " + e.getMessage());
+        }
+    }
+
+    private static int parseInt(String column, String value) throws IOException {
+        if (value == null) {
+            throw new IOException("Missing " + column + " value");
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + column + " value: " + value);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Random;
+
+/**
+ * Generates pets with realistic names, breeds, genders and weights for load testing.
+ * Same seed always generates same pets. Pets are written in packed {@link PetBatch}es, each
+ * batch is one transaction in the provider and the batch is reused for the next one, so
+ * generated values are neither boxed nor put into ContentValues per pet.
+ */
+public final class PetDataGenerator {
+
+    // Number of pets written in one bulkInsert() transaction
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+
+    // Names with relative frequency of each of them
+    private static final String[] NAMES = {"Max", "Bella", "Charlie", "Luna", "Lucy", "Cooper",
+            "Daisy", "Milo", "Rocky", "Molly", "Bailey", "Oliver", "Coco", "Leo", "Lola", "Teddy",
+            "Simba", "Nala", "Toby", "Chloe", "Garfield", "Tom", "Lassie", "Rex", "Toto", "Shadow",
+            "Ginger", "Smokey", "Oscar", "Zoe"};
+    private static final int[] NAME_WEIGHTS = {40, 38, 35, 33, 30, 28, 26, 25, 22, 22, 20, 20,
+            18, 18, 16, 15, 14, 12, 12, 12, 10, 10, 8, 8, 8, 7, 6, 6, 5, 5};
+
+    // Breeds with relative frequency and mean weight in kg, null breed is unknown one
+    private static final String[] BREEDS = {"Labrador Retriever", "German Shepherd",
+            "Golden Retriever", "French Bulldog", "Beagle", "Poodle", "Dachshund", "Yorkshire Terrier",
+            "Boxer", "Siberian Husky", "Tabby", "Siamese", "Persian", "Maine Coon", "Ragdoll",
+            "Bengal", null};
+    private static final int[] BREED_WEIGHTS = {30, 25, 22, 20, 18, 16, 12, 12, 10, 9, 40, 15,
+            14, 10, 8, 6, 35};
+    private static final int[] BREED_MEAN_KG = {32, 35, 30, 12, 10, 20, 9, 3, 30, 23, 4, 4, 5,
+            7, 6, 5, 10};
+
+    private final Random mRandom;
+    private final int[] mNameCumulative = cumulative(NAME_WEIGHTS);
+    private final int[] mBreedCumulative = cumulative(BREED_WEIGHTS);
+    // Values of the last generated pet
+    private String mName;
+    private String mBreed;
+    private int mGender;
+    private int mWeight;
+
+    public PetDataGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Fills values with next generated pet, overwriting all pet columns
+     */
+    public void nextPet(ContentValues values) {
+        generate();
+        values.put(PetEntry.COLUMN_PET_NAME, mName);
+        values.put(PetEntry.COLUMN_PET_BREED, mBreed);
+        values.put(PetEntry.COLUMN_PET_GENDER, mGender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, mWeight);
+    }
+
+    /**
+     * Adds next generated pet to the batch
+     */
+    public void nextPet(PetBatch batch) {
+        generate();
+        batch.add(mName, mBreed, mGender, mWeight);
+    }
+
+    /**
+     * Inserts given number of generated pets through the provider in batches of given size
+     * @return number of inserted pets
+     * @throws IllegalStateException if provider inserted fewer pets of a batch than it had
+     */
+    public int insertPets(ContentResolver resolver, int count, int batchSize) {
+        PetBatch batch = new PetBatch(Math.min(count, batchSize));
+        int inserted = 0;
+        while (inserted < count) {
+            int size = Math.min(batchSize, count - inserted);
+            batch.clear();
+            for (int i = 0; i < size; i++) {
+                nextPet(batch);
+            }
+            int batchInserted = batch.insert(resolver);
+            if (batchInserted < size) {
+                throw new IllegalStateException("Only " + batchInserted + " of " + size
+                        + " generated pets were inserted");
+            }
+            inserted += batchInserted;
+        }
+        return inserted;
+    }
+
+    /**
+     * Generates values of next pet into fields of the generator
+     */
+    private void generate() {
+        mName = NAMES[pick(mNameCumulative)];
+        int breed = pick(mBreedCumulative);
+        mBreed = BREEDS[breed];
+
+        // Few pets have unknown gender, others are evenly male and female
+        int gender = mRandom.nextInt(100);
+        mGender = gender < 4 ? PetEntry.GENDER_UNKNOWN
+                : gender < 52 ? PetEntry.GENDER_MALE : PetEntry.GENDER_FEMALE;
+
+        // Weight is spread normally around mean of the breed, with 25% deviation
+        int mean = BREED_MEAN_KG[breed];
+        long weight = Math.round(mean + mRandom.nextGaussian() * mean / 4);
+        mWeight = (int) Math.max(1, weight);
+    }
+
+    /**
+     * Returns index chosen randomly with probability given by cumulative weights
+     */
+    private int pick(int[] cumulative) {
+        int value = mRandom.nextInt(cumulative[cumulative.length - 1]);
+        int index = 0;
+        while (value >= cumulative[index]) {
+            index++;
+        }
+        return index;
+    }
+
+    private static int[] cumulative(int[] weights) {
+        int[] cumulative = new int[weights.length];
+        int sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cumulative[i] = sum;
+        }
+        return cumulative;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports pets from CSV or NDJSON stream, in the format exported by PetProvider.
+ * Pets are parsed one by one into reused ContentValues and inserted with bulkInsert() every
+ * batchSize pets, so memory use doesn't depend on size of the stream. Every batch is its own
+ * transaction, if a batch fails with exception pets of previous batches stay imported.
+ * Catalog imports files picked by the user with it.
+ */
+public final class PetImporter {
+
+    // Number of pets inserted in one transaction
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    // Private constructor to prevent accidental instantiation
+    private PetImporter() {}
+
+    /**
+     * Imports all pets from stream, stream is not closed
+     * @param mimeType {@link PetEntry#CSV_TYPE} or {@link PetEntry#NDJSON_TYPE}
+     * @return number of imported pets
+     * @throws IOException if stream can't be read or has invalid record
+     */
+    public static int importPets(ContentResolver resolver, InputStream in, String mimeType,
+                                 int batchSize) throws IOException {
+        boolean csv;
+        if (PetEntry.CSV_TYPE.equals(mimeType)) {
+            csv = true;
+        } else if (PetEntry.NDJSON_TYPE.equals(mimeType)) {
+            csv = false;
+        } else {
+            throw new IllegalArgumentException("Pets can't be imported from " + mimeType);
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        ContentValues[] batch = new ContentValues[batchSize];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new ContentValues();
+        }
+        List<String> header = new ArrayList<String>();
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        if (csv && !PetDataFormat.readCsvRecord(reader, header, field)) {
+            return 0;
+        }
+
+        int imported = 0;
+        int size = 0;
+        while (true) {
+            if (csv) {
+                if (!PetDataFormat.readCsvRecord(reader, fields, field)) {
+                    break;
+                }
+                // Skip empty lines
+                if (fields.size() == 1 && fields.get(0) == null) {
+                    continue;
+                }
+                PetDataFormat.readCsvPet(header, fields, batch[size]);
+            } else {
+                String line = reader.readLine();
+                if (line == null) {
+                    break;
+                }
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                PetDataFormat.readJsonPet(line, batch[size]);
+            }
+
+            size++;
+            if (size == batch.length) {
+                imported += resolver.bulkInsert(PetEntry.CONTENT_URI, batch);
+                size = 0;
+            }
+        }
+
+        if (size > 0) {
+            ContentValues[] lastBatch = new ContentValues[size];
+            System.arraycopy(batch, 0, lastBatch, 0, size);
+            imported += resolver.bulkInsert(PetEntry.CONTENT_URI, lastBatch);
+        }
+        return imported;
+    }
+}
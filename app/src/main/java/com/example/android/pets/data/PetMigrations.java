@@ -0,0 +1,298 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+/**
+ * Step by step schema migrations for shelter database.
+ * Every step upgrades database from one version to the next one, so database of any old
+ * version is brought to the current one by running all steps after its version in order.
+ */
+final class PetMigrations {
+
+    private static final String TAG = PetMigrations.class.getSimpleName();
+
+    // Private constructor to prevent accidental instantiation
+    private PetMigrations() {}
+
+    /**
+     * One migration step, upgrades schema from version (toVersion - 1) to toVersion
+     */
+    abstract static class Migration {
+
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // Index names
+    static final String INDEX_PETS_NAME = "pets_name_idx";
+    static final String INDEX_PETS_BREED = "pets_breed_idx";
+    static final String INDEX_PETS_GENDER_WEIGHT = "pets_gender_weight_idx";
+    // Covering index for pets summary, sorted by name and _id like the catalog
+    static final String INDEX_PETS_SUMMARY = "pets_summary_idx";
+    // Indexes for catalog filters combined with sort orders
+    static final String INDEX_PETS_GENDER_NAME = "pets_gender_name_idx";
+    static final String INDEX_PETS_WEIGHT = "pets_weight_idx";
+    static final String INDEX_PETS_BREED_NAME = "pets_breed_name_idx";
+    static final String INDEX_PETS_BREED_WEIGHT = "pets_breed_weight_idx";
+
+    // Full text search table over name and breed, docid of each row is _id of the pet
+    static final String TABLE_PETS_FTS = "pets_fts";
+
+    // Summary tables with number of pets and sum of their weights per gender and per breed,
+    // kept up to date by triggers. Unknown breed is stored as empty string, so it has one row.
+    static final String TABLE_GENDER_STATS = "pet_gender_stats";
+    static final String TABLE_BREED_STATS = "pet_breed_stats";
+    static final String COLUMN_WEIGHT_SUM = "weight_sum";
+
+    // Journal of pet changes kept by triggers, see PetChangeEntry
+    static final String TABLE_PET_CHANGES = "pet_changes";
+    static final String INDEX_PET_CHANGES_PET = "pet_changes_pet_idx";
+
+    /**
+     * All migration steps, ordered by version. When schema is changed new step must be added
+     * at the end and PetDBHelper database version must be set to its toVersion.
+     */
+    private static final Migration[] MIGRATIONS = {
+            // Version 2: secondary indexes for name, breed and gender with weight filters
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + INDEX_PETS_NAME + " ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_NAME + ")");
+                    db.execSQL("CREATE INDEX " + INDEX_PETS_BREED + " ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_BREED + ")");
+                    db.execSQL("CREATE INDEX " + INDEX_PETS_GENDER_WEIGHT + " ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ")");
+                    // Refresh statistics so query planner knows how selective new indexes are
+                    db.execSQL("ANALYZE " + PetEntry.TABLE_NAME);
+                }
+            },
+            // Version 3: full text search table kept in sync with pets table by triggers
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Prefix indexes make "term*" queries cheap, they are supported from 3.7.7
+                    String prefixOption = isSqliteAtLeast(db, 3, 7, 7) ? ", prefix=\"2,3\"" : "";
+                    db.execSQL("CREATE VIRTUAL TABLE " + TABLE_PETS_FTS + " USING fts4("
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+                            + prefixOption + ")");
+                    db.execSQL("INSERT INTO " + TABLE_PETS_FTS + " (docid, "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ")"
+                            + " SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME);
+
+                    db.execSQL("CREATE TRIGGER pets_fts_insert AFTER INSERT ON " + PetEntry.TABLE_NAME
+                            + " BEGIN INSERT INTO " + TABLE_PETS_FTS + " (docid, "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ")"
+                            + " VALUES (new." + PetEntry._ID + ", new." + PetEntry.COLUMN_PET_NAME
+                            + ", new." + PetEntry.COLUMN_PET_BREED + "); END");
+                    db.execSQL("CREATE TRIGGER pets_fts_update AFTER UPDATE OF "
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+                            + " ON " + PetEntry.TABLE_NAME
+                            + " BEGIN UPDATE " + TABLE_PETS_FTS + " SET "
+                            + PetEntry.COLUMN_PET_NAME + " = new." + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + " = new." + PetEntry.COLUMN_PET_BREED
+                            + " WHERE docid = old." + PetEntry._ID + "; END");
+                    db.execSQL("CREATE TRIGGER pets_fts_delete AFTER DELETE ON " + PetEntry.TABLE_NAME
+                            + " BEGIN DELETE FROM " + TABLE_PETS_FTS
+                            + " WHERE docid = old." + PetEntry._ID + "; END");
+                }
+            },
+            // Version 4: summary tables for pet statistics kept up to date by triggers
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + TABLE_GENDER_STATS + " ("
+                            + PetEntry.COLUMN_PET_GENDER + " INTEGER PRIMARY KEY, "
+                            + PetStatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL, "
+                            + COLUMN_WEIGHT_SUM + " INTEGER NOT NULL)");
+                    db.execSQL("CREATE TABLE " + TABLE_BREED_STATS + " ("
+                            + PetEntry.COLUMN_PET_BREED + " TEXT PRIMARY KEY NOT NULL, "
+                            + PetStatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL, "
+                            + COLUMN_WEIGHT_SUM + " INTEGER NOT NULL)");
+
+                    String breedKey = "IFNULL(" + PetEntry.COLUMN_PET_BREED + ", '')";
+                    db.execSQL("INSERT INTO " + TABLE_GENDER_STATS + " SELECT "
+                            + PetEntry.COLUMN_PET_GENDER + ", COUNT(*), SUM("
+                            + PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetEntry.TABLE_NAME
+                            + " GROUP BY " + PetEntry.COLUMN_PET_GENDER);
+                    db.execSQL("INSERT INTO " + TABLE_BREED_STATS + " SELECT " + breedKey
+                            + ", COUNT(*), SUM(" + PetEntry.COLUMN_PET_WEIGHT + ") FROM "
+                            + PetEntry.TABLE_NAME + " GROUP BY " + breedKey);
+
+                    // Changed pet is removed from statistics of its old values and added to
+                    // statistics of new ones, rows without pets are deleted
+                    String addNew = statsChange(TABLE_GENDER_STATS, PetEntry.COLUMN_PET_GENDER,
+                            "new." + PetEntry.COLUMN_PET_GENDER, "new", "+")
+                            + statsChange(TABLE_BREED_STATS, PetEntry.COLUMN_PET_BREED,
+                            "IFNULL(new." + PetEntry.COLUMN_PET_BREED + ", '')", "new", "+");
+                    String removeOld = statsChange(TABLE_GENDER_STATS, PetEntry.COLUMN_PET_GENDER,
+                            "old." + PetEntry.COLUMN_PET_GENDER, "old", "-")
+                            + statsChange(TABLE_BREED_STATS, PetEntry.COLUMN_PET_BREED,
+                            "IFNULL(old." + PetEntry.COLUMN_PET_BREED + ", '')", "old", "-");
+
+                    db.execSQL("CREATE TRIGGER pets_stats_insert AFTER INSERT ON "
+                            + PetEntry.TABLE_NAME + " BEGIN " + addNew + " END");
+                    db.execSQL("CREATE TRIGGER pets_stats_update AFTER UPDATE OF "
+                            + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_GENDER + ", "
+                            + PetEntry.COLUMN_PET_WEIGHT + " ON " + PetEntry.TABLE_NAME
+                            + " BEGIN " + removeOld + addNew + " END");
+                    db.execSQL("CREATE TRIGGER pets_stats_delete AFTER DELETE ON "
+                            + PetEntry.TABLE_NAME + " BEGIN " + removeOld + " END");
+                }
+            },
+            // Version 5: covering index for summary list, which replaces name index
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Index has every column of the summary in display order, so summary pages
+                    // are read from index only and never from rows of the table
+                    db.execSQL("CREATE INDEX " + INDEX_PETS_SUMMARY + " ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID + ", "
+                            + PetEntry.COLUMN_PET_BREED + ")");
+                    // Name index is a prefix of the summary index, so it is not needed anymore
+                    db.execSQL("DROP INDEX " + INDEX_PETS_NAME);
+                    db.execSQL("ANALYZE " + PetEntry.TABLE_NAME);
+                }
+            },
+            // Version 6: composite indexes for catalog filters. Every index starts with filtered
+            // column and continues with sort column, _id is implicitly last, so filtered page is
+            // read in order without sorting. Gender with weight uses existing gender_weight index.
+            // Weight range is served only in weight order, catalog never sorts it by name.
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + INDEX_PETS_GENDER_NAME + " ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_NAME + ")");
+                    db.execSQL("CREATE INDEX " + INDEX_PETS_WEIGHT + " ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_WEIGHT + ")");
+                    db.execSQL("CREATE INDEX " + INDEX_PETS_BREED_NAME + " ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_NAME + ")");
+                    db.execSQL("CREATE INDEX " + INDEX_PETS_BREED_WEIGHT + " ON " + PetEntry.TABLE_NAME
+                            + " (" + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_WEIGHT + ")");
+                    // Breed index is a prefix of breed and name index
+                    db.execSQL("DROP INDEX " + INDEX_PETS_BREED);
+                    db.execSQL("ANALYZE " + PetEntry.TABLE_NAME);
+                }
+            },
+            // Version 7: journal of pet changes kept by triggers. AUTOINCREMENT makes sequence
+            // numbers grow even after newest entries are compacted, so they are never reused.
+            // Existing pets are not journaled, consumers start with a scan of pets.
+            new Migration(7) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + TABLE_PET_CHANGES + " ("
+                            + PetChangeEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + PetChangeEntry.COLUMN_PET_ID + " INTEGER, "
+                            + PetChangeEntry.COLUMN_OPERATION + " INTEGER NOT NULL)");
+                    // Compaction finds older entries of the same pet
+                    db.execSQL("CREATE INDEX " + INDEX_PET_CHANGES_PET + " ON " + TABLE_PET_CHANGES
+                            + " (" + PetChangeEntry.COLUMN_PET_ID + ")");
+
+                    db.execSQL("CREATE TRIGGER pets_changes_insert AFTER INSERT ON "
+                            + PetEntry.TABLE_NAME + " BEGIN "
+                            + journalChange("new", PetChangeEntry.OPERATION_INSERT) + " END");
+                    db.execSQL("CREATE TRIGGER pets_changes_update AFTER UPDATE ON "
+                            + PetEntry.TABLE_NAME + " BEGIN "
+                            + journalChange("new", PetChangeEntry.OPERATION_UPDATE) + " END");
+                    db.execSQL("CREATE TRIGGER pets_changes_delete AFTER DELETE ON "
+                            + PetEntry.TABLE_NAME + " BEGIN "
+                            + journalChange("old", PetChangeEntry.OPERATION_DELETE) + " END");
+                }
+            },
+            // Version 8: change journal is bounded by sequence instead of keeping the newest
+            // entry of every pet, so the pet index only slowed down every journaled change
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("DROP INDEX " + INDEX_PET_CHANGES_PET);
+                }
+            },
+    };
+
+    /**
+     * Returns latest schema version, the one database is at after all migrations are run
+     */
+    static int latestVersion() {
+        return MIGRATIONS[MIGRATIONS.length - 1].toVersion;
+    }
+
+    /**
+     * Returns trigger statement which adds entry with given operation of "new" or "old" row
+     * of the trigger to the change journal
+     */
+    private static String journalChange(String row, int operation) {
+        return "INSERT INTO " + TABLE_PET_CHANGES + " (" + PetChangeEntry.COLUMN_PET_ID + ", "
+                + PetChangeEntry.COLUMN_OPERATION + ") VALUES (" + row + "." + PetEntry._ID
+                + ", " + operation + "); ";
+    }
+
+    /**
+     * Returns trigger statements which add pet ("+") to or remove it ("-") from row of summary
+     * table with given key, using weight of "new" or "old" row of the trigger
+     */
+    private static String statsChange(String table, String keyColumn, String key, String row,
+                                      String sign) {
+        String sql = "";
+        if (sign.equals("+")) {
+            sql += "INSERT OR IGNORE INTO " + table + " VALUES (" + key + ", 0, 0); ";
+        }
+        sql += "UPDATE " + table + " SET "
+                + PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " " + sign + " 1, "
+                + COLUMN_WEIGHT_SUM + " = " + COLUMN_WEIGHT_SUM + " " + sign + " " + row + "."
+                + PetEntry.COLUMN_PET_WEIGHT + " WHERE " + keyColumn + " = " + key + "; ";
+        if (sign.equals("-")) {
+            sql += "DELETE FROM " + table + " WHERE " + keyColumn + " = " + key + " AND "
+                    + PetStatsEntry.COLUMN_PET_COUNT + " = 0; ";
+        }
+        return sql;
+    }
+
+    /**
+     * Checks if SQLite library database is running on is at least of given version
+     */
+    private static boolean isSqliteAtLeast(SQLiteDatabase db, int major, int minor, int patch) {
+        Cursor cursor = db.rawQuery("SELECT sqlite_version()", null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            String[] parts = cursor.getString(0).split("\\.");
+            int[] required = {major, minor, patch};
+            for (int i = 0; i < required.length; i++) {
+                int part = i < parts.length ? Integer.parseInt(parts[i]) : 0;
+                if (part != required[i]) {
+                    return part > required[i];
+                }
+            }
+            return true;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs all migration steps needed to bring database from oldVersion to newVersion.
+     * SQLiteOpenHelper already runs onCreate() and onUpgrade() inside a transaction, so if any
+     * of the steps fails, whole upgrade is rolled back and database stays at oldVersion.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion > oldVersion && migration.toVersion <= newVersion) {
+                Log.i(TAG, "Migrating database to version " + migration.toVersion);
+                migration.migrate(db);
+            }
+        }
+    }
+}
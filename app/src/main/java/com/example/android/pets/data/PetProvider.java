@@ -1,17 +1,51 @@
 package com.example.android.pets.data;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.example.android.pets.R;
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by dzenang on 30.3.2017.
@@ -22,22 +56,130 @@ public class PetProvider extends ContentProvider {
     private static final String TAG = PetProvider.class.getSimpleName();
     // Database helper object
     private PetDBHelper mDbHelper;
+    // Compiled statements for single row writes, created for current writable database
+    private PetStatementCache mStatementCache;
+    // Recently read pets, null if cache is turned off
+    private PetRowCache mRowCache;
+    // Latency stats of provider operations, null if they are turned off
+    private PetProviderStats mStats;
+    // Maximum number of pets deleted in one transaction
+    private int mDeleteChunkSize;
+    // Number of free pages returned to file system in one incremental vacuum step
+    private int mVacuumStepPages;
+    private final Executor mVacuumExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean mVacuumScheduled = new AtomicBoolean();
+    // Number of changed pets after which change journal is compacted
+    private int mJournalCompactInterval;
+    // Number of newest journal entries which compaction never drops
+    private int mJournalSize;
+    // Pets changed since journal compaction was last scheduled
+    private final AtomicInteger mJournalChanges = new AtomicInteger();
+    private final AtomicBoolean mJournalCompactionScheduled = new AtomicBoolean();
 
     // Code for /pets path
     private static final int PETS = 100;
     // Code for /pets/# path
     private static final int PET_ID = 101;
+    // Code for /pets/search/* path
+    private static final int PET_SEARCH = 102;
+    // Code for /pets/stats path
+    private static final int PET_STATS = 103;
+    // Code for /pets/stats/breeds path
+    private static final int PET_BREED_STATS = 104;
+    // Code for /pets/summary path
+    private static final int PET_SUMMARY = 105;
+    // Code for /pets/changes path
+    private static final int PET_CHANGES = 106;
+
+    // Set while applyBatch() is running on the current thread, single operations collect uris
+    // of changed pets here instead of notifying them and notifications are sent at the end
+    private final ThreadLocal<List<Uri>> mBatchChanges = new ThreadLocal<List<Uri>>();
+
+    // Columns of pets summary, all of them are in summary index
+    private static final String[] SUMMARY_COLUMNS = {PetEntry._ID, PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED};
+
+    // Stream types pets can be exported in
+    private static final String[] sExportTypes = {PetEntry.CSV_TYPE, PetEntry.NDJSON_TYPE};
+    // Number of pets read from database at once while they are exported
+    private static final int EXPORT_PAGE_SIZE = 500;
+
+    // Writes which change at most this many pets notify uri of every changed pet,
+    // so listeners can refresh only those rows, bigger writes notify only pets uri
+    private static final int MAX_ROW_NOTIFICATIONS = 20;
 
     private  static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
     static {
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS, PETS);
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*", PET_SEARCH);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_STATS, PET_STATS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/"
+                + PetContract.PATH_STATS + "/" + PetContract.PATH_BREEDS, PET_BREED_STATS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SUMMARY, PET_SUMMARY);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_CHANGES, PET_CHANGES);
+    }
+
+    // Search joins pets with full text search table, which also has name and breed columns,
+    // so every column is mapped to the one from pets table
+    private static final Map<String, String> sSearchProjectionMap = new HashMap<String, String>();
+    // Columns of search results when projection is not given
+    private static final String[] SEARCH_COLUMNS = {PetEntry._ID, PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT};
+    // Docid of full text match, read internally to merge groups of search results
+    private static final String SEARCH_DOCID = "search_docid";
+
+    static {
+        for (String column : SEARCH_COLUMNS) {
+            sSearchProjectionMap.put(column, PetEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+        sSearchProjectionMap.put(SEARCH_DOCID, PetMigrations.TABLE_PETS_FTS + ".docid AS "
+                + SEARCH_DOCID);
+    }
+
+    // Statistics are read from summary tables, average weight is computed from sum of weights
+    // and unknown breed, stored as empty string, is returned as null
+    private static final Map<String, String> sGenderStatsProjectionMap =
+            new HashMap<String, String>();
+    private static final Map<String, String> sBreedStatsProjectionMap =
+            new HashMap<String, String>();
+
+    static {
+        String averageWeight = "CAST(" + PetMigrations.COLUMN_WEIGHT_SUM + " AS REAL) / "
+                + PetStatsEntry.COLUMN_PET_COUNT + " AS " + PetStatsEntry.COLUMN_AVERAGE_WEIGHT;
+        for (Map<String, String> map : Arrays.asList(sGenderStatsProjectionMap,
+                sBreedStatsProjectionMap)) {
+            map.put(PetStatsEntry.COLUMN_PET_COUNT, PetStatsEntry.COLUMN_PET_COUNT);
+            map.put(PetStatsEntry.COLUMN_AVERAGE_WEIGHT, averageWeight);
+        }
+        sGenderStatsProjectionMap.put(PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_GENDER);
+        sBreedStatsProjectionMap.put(PetEntry.COLUMN_PET_BREED, "NULLIF("
+                + PetEntry.COLUMN_PET_BREED + ", '') AS " + PetEntry.COLUMN_PET_BREED);
     }
 
     @Override
     public boolean onCreate() {
-        mDbHelper = new PetDBHelper(getContext());
+        Resources res = getContext().getResources();
+        mDbHelper = new PetDBHelper(getContext(),
+                res.getBoolean(R.bool.config_db_write_ahead_logging),
+                res.getInteger(R.integer.config_db_wal_autocheckpoint_pages),
+                res.getInteger(R.integer.config_db_wal_size_limit_bytes));
+        int rowCacheSize = res.getInteger(R.integer.config_provider_row_cache_size);
+        if (rowCacheSize > 0) {
+            mRowCache = new PetRowCache(rowCacheSize);
+        }
+        if (res.getBoolean(R.bool.config_provider_stats)) {
+            mStats = new PetProviderStats();
+        }
+        mDeleteChunkSize = res.getInteger(R.integer.config_db_delete_chunk_size);
+        mVacuumStepPages = res.getInteger(R.integer.config_db_vacuum_step_pages);
+        mJournalCompactInterval = res.getInteger(R.integer.config_change_journal_compact_interval);
+        mJournalSize = res.getInteger(R.integer.config_change_journal_size);
         return false;
     }
 
@@ -46,21 +188,40 @@ public class PetProvider extends ContentProvider {
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
 
+        // In WAL mode queries from different threads run on separate reader connections,
+        // so they are not blocked by a write transaction which is in progress
+        long start = startTiming();
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         Cursor retCursor;
+        Uri notificationUri = uri;
+        int metric;
 
         // Figure out if the URI matcher can match the URI to a specific code
         int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
+                // If any of paging parameters is set, return only requested page of pets
+                if (isPageQuery(uri)) {
+                    retCursor = queryPetsPage(database, uri, false, projection, selection,
+                            selectionArgs, sortOrder);
+                    metric = PetProviderStats.QUERY_PETS;
+                    break;
+                }
                 // For the PETS code, query the pets table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the pets table.
                 retCursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
+                metric = PetProviderStats.QUERY_PETS;
                 break;
             case PET_ID:
+                metric = PetProviderStats.QUERY_PET_ID;
+                // Single pet without extra conditions can be served from the row cache
+                if (mRowCache != null && selection == null && PetRowCache.canProject(projection)) {
+                    retCursor = queryCachedPet(database, ContentUris.parseId(uri), projection);
+                    break;
+                }
                 // For the PET_ID code, extract out the ID from the URI.
                 // For an example URI such as "content://com.example.android.pets/pets/3",
                 // the selection will be "_id=?" and the selection argument will be a
@@ -77,17 +238,555 @@ public class PetProvider extends ContentProvider {
                 retCursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case PET_SEARCH:
+                retCursor = searchPets(database, uri, projection, selection, selectionArgs,
+                        sortOrder);
+                // Search results can change with any change of pets table
+                notificationUri = PetEntry.CONTENT_URI;
+                metric = PetProviderStats.QUERY_PET_SEARCH;
+                break;
+            case PET_SUMMARY:
+                retCursor = queryPetsPage(database, uri, true, projection, selection,
+                        selectionArgs, sortOrder);
+                // Summary changes with any change of pets table
+                notificationUri = PetEntry.CONTENT_URI;
+                metric = PetProviderStats.QUERY_PET_SUMMARY;
+                break;
+            case PET_STATS:
+                retCursor = queryStats(database, PetMigrations.TABLE_GENDER_STATS,
+                        sGenderStatsProjectionMap, projection, selection, selectionArgs,
+                        sortOrder != null ? sortOrder : PetEntry.COLUMN_PET_GENDER);
+                // Statistics change with any change of pets table
+                notificationUri = PetEntry.CONTENT_URI;
+                metric = PetProviderStats.QUERY_PET_STATS;
+                break;
+            case PET_BREED_STATS:
+                retCursor = queryStats(database, PetMigrations.TABLE_BREED_STATS,
+                        sBreedStatsProjectionMap, projection, selection, selectionArgs,
+                        sortOrder != null ? sortOrder : PetStatsEntry.COLUMN_PET_COUNT + " DESC");
+                notificationUri = PetEntry.CONTENT_URI;
+                metric = PetProviderStats.QUERY_PET_STATS;
+                break;
+            case PET_CHANGES:
+                retCursor = queryChanges(database, uri, projection, selection, selectionArgs,
+                        sortOrder);
+                // Journal gets new entries with any change of pets table
+                notificationUri = PetEntry.CONTENT_URI;
+                metric = PetProviderStats.QUERY_PET_CHANGES;
+                break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
         // Setting notification uri for cursor before returning it
         // uri is content://com.example.android.pets/pets
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
+        // Query is executed when its cursor is counted, so counting it here measures whole query
+        if (mStats != null) {
+            mStats.record(metric, start, retCursor.getCount());
+        }
         return retCursor;
     }
 
+    /**
+     * Returns cursor with pet of given id from the row cache. If pet is not cached, its whole
+     * row is read from database and cached, so next query of that pet doesn't touch database.
+     */
+    private Cursor queryCachedPet(SQLiteDatabase database, long id, String[] projection) {
+        Object[] row = mRowCache.get(id);
+        if (row == null) {
+            long generation = mRowCache.getGeneration();
+            Cursor cursor = database.query(PetEntry.TABLE_NAME, PetRowCache.COLUMNS,
+                    PetEntry._ID + "=?", new String[] {String.valueOf(id)}, null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    row = PetRowCache.readRow(cursor);
+                    mRowCache.put(id, row, generation);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return PetRowCache.toCursor(row, projection);
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (PetContract.METHOD_STATS.equals(method)) {
+            if (mStats == null) {
+                return new Bundle();
+            }
+            Bundle stats = mStats.toBundle();
+            if (PetContract.ARG_STATS_RESET.equals(arg)) {
+                mStats.reset();
+            }
+            return stats;
+        }
+        if (PetContract.METHOD_INSERT_PETS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(PetContract.KEY_PETS_COUNT, insertPetBatch(PetBatch.fromByteArray(
+                    extras == null ? null : extras.getByteArray(PetContract.KEY_PETS_BATCH))));
+            return result;
+        }
+        if (PetContract.METHOD_COMPACT_DATABASE.equals(method)) {
+            Bundle result = new Bundle();
+            result.putBoolean(PetContract.KEY_COMPACTED, compactDatabase());
+            return result;
+        }
+        if (PetContract.METHOD_ROW_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            if (mRowCache != null) {
+                stats.putLong(PetContract.KEY_CACHE_HITS, mRowCache.getHits());
+                stats.putLong(PetContract.KEY_CACHE_MISSES, mRowCache.getMisses());
+                stats.putInt(PetContract.KEY_CACHE_SIZE, mRowCache.size());
+                stats.putInt(PetContract.KEY_CACHE_MAX_SIZE, mRowCache.maxSize());
+            }
+            return stats;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Checks if uri has some of keyset paging query parameters
+     */
+    private static boolean isPageQuery(Uri uri) {
+        return uri.getQueryParameter(PetEntry.QUERY_PARAM_LIMIT) != null
+                || uri.getQueryParameter(PetEntry.QUERY_PARAM_ORDER_BY) != null
+                || uri.getQueryParameter(PetEntry.QUERY_PARAM_AFTER_ID) != null
+                || uri.getQueryParameter(PetEntry.QUERY_PARAM_UPTO_ID) != null
+                || hasFilter(uri);
+    }
+
+    /**
+     * Checks if uri has some of filter query parameters
+     */
+    private static boolean hasFilter(Uri uri) {
+        return uri.getQueryParameter(PetEntry.QUERY_PARAM_GENDER) != null
+                || uri.getQueryParameter(PetEntry.QUERY_PARAM_MIN_WEIGHT) != null
+                || uri.getQueryParameter(PetEntry.QUERY_PARAM_MAX_WEIGHT) != null
+                || uri.getQueryParameter(PetEntry.QUERY_PARAM_BREED) != null;
+    }
+
+    /**
+     * Returns one page of pets using keyset paging.
+     * Instead of skipping rows with OFFSET, page starts right after the key of last row of
+     * previous page, so SQLite seeks directly to it using _id or name index and every page
+     * costs the same no matter how deep in the list it is.
+     * Summary page is sorted by name and has only summary columns, so it is read from covering
+     * summary index alone.
+     */
+    private Cursor queryPetsPage(SQLiteDatabase database, Uri uri, boolean summary,
+                                 String[] projection, String selection, String[] selectionArgs,
+                                 String sortOrder) {
+
+        if (sortOrder != null) {
+            throw new IllegalArgumentException("Paged query is sorted by "
+                    + PetEntry.QUERY_PARAM_ORDER_BY + ", sort order is not supported for " + uri);
+        }
+
+        String table = PetEntry.TABLE_NAME;
+        String orderBy = uri.getQueryParameter(PetEntry.QUERY_PARAM_ORDER_BY);
+        if (summary) {
+            if (projection == null) {
+                projection = SUMMARY_COLUMNS;
+            }
+            for (String column : projection) {
+                if (!Arrays.asList(SUMMARY_COLUMNS).contains(column)) {
+                    throw new IllegalArgumentException("Column " + column
+                            + " is not part of pets summary " + uri);
+                }
+            }
+            if (orderBy == null) {
+                orderBy = PetEntry.COLUMN_PET_NAME;
+            } else if (!orderBy.equals(PetEntry.COLUMN_PET_NAME)) {
+                throw new IllegalArgumentException("Pets summary is sorted only by name " + uri);
+            }
+            // Breed is in the summary index, other filters would need rows of the table
+            if (uri.getQueryParameter(PetEntry.QUERY_PARAM_GENDER) != null
+                    || uri.getQueryParameter(PetEntry.QUERY_PARAM_MIN_WEIGHT) != null
+                    || uri.getQueryParameter(PetEntry.QUERY_PARAM_MAX_WEIGHT) != null) {
+                throw new IllegalArgumentException("Pets summary can be filtered only by breed "
+                        + uri);
+            }
+            // Make sure query never falls back to reading rows of the table. Pets of one breed
+            // are read from breed and name index instead, which covers summary columns as well.
+            if (uri.getQueryParameter(PetEntry.QUERY_PARAM_BREED) == null) {
+                table = PetEntry.TABLE_NAME + " INDEXED BY " + PetMigrations.INDEX_PETS_SUMMARY;
+            }
+        }
+
+        // Find key column and names of parameters which hold its values
+        String afterKeyParam = null;
+        String uptoKeyParam = null;
+        if (orderBy == null || orderBy.equals(PetEntry._ID)) {
+            orderBy = PetEntry._ID;
+        } else if (orderBy.equals(PetEntry.COLUMN_PET_NAME)) {
+            afterKeyParam = PetEntry.QUERY_PARAM_AFTER_NAME;
+            uptoKeyParam = PetEntry.QUERY_PARAM_UPTO_NAME;
+        } else if (orderBy.equals(PetEntry.COLUMN_PET_WEIGHT)) {
+            afterKeyParam = PetEntry.QUERY_PARAM_AFTER_WEIGHT;
+            uptoKeyParam = PetEntry.QUERY_PARAM_UPTO_WEIGHT;
+        } else {
+            throw new IllegalArgumentException("Pets can't be paged by " + orderBy);
+        }
+
+        // Filters are simple equality and range conditions, each combination with sort order
+        // used by catalog has a composite index whose columns start with the filtered ones
+        String gender = uri.getQueryParameter(PetEntry.QUERY_PARAM_GENDER);
+        if (gender != null) {
+            if (!PetEntry.isValidGender(Integer.parseInt(gender))) {
+                throw new IllegalArgumentException("Invalid gender filter in " + uri);
+            }
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    PetEntry.COLUMN_PET_GENDER + " = ?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] {gender});
+        }
+        String minWeight = uri.getQueryParameter(PetEntry.QUERY_PARAM_MIN_WEIGHT);
+        if (minWeight != null) {
+            Integer.parseInt(minWeight);
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    PetEntry.COLUMN_PET_WEIGHT + " >= ?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[] {minWeight});
+        }
+        String maxWeight = uri.getQueryParameter(PetEntry.QUERY_PARAM_MAX_WEIGHT);
+        if (maxWeight != null) {
+            Integer.parseInt(maxWeight);
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    PetEntry.COLUMN_PET_WEIGHT + " <= ?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                    new String[] {maxWeight});
+        }
+        String breed = uri.getQueryParameter(PetEntry.QUERY_PARAM_BREED);
+        if (breed != null) {
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    PetEntry.COLUMN_PET_BREED + " = ?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] {breed});
+        }
+
+        String afterId = uri.getQueryParameter(PetEntry.QUERY_PARAM_AFTER_ID);
+        if (afterId != null) {
+            // Id must be a number, otherwise NumberFormatException is thrown
+            Long.parseLong(afterId);
+            if (afterKeyParam == null) {
+                selection = DatabaseUtils.concatenateWhere(selection, PetEntry._ID + " > ?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[] {afterId});
+            } else {
+                String afterKey = requireQueryParameter(uri, afterKeyParam);
+                checkKey(orderBy, afterKey);
+                // Same as (key > ? OR (key = ? AND _id > ?)), but written so that SQLite
+                // seeks index of the key instead of scanning it from the start
+                selection = DatabaseUtils.concatenateWhere(selection, orderBy + " >= ? AND ("
+                        + orderBy + " > ? OR " + PetEntry._ID + " > ?)");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[] {afterKey, afterKey, afterId});
+            }
+        }
+
+        String uptoId = uri.getQueryParameter(PetEntry.QUERY_PARAM_UPTO_ID);
+        if (uptoId != null) {
+            // Id must be a number, otherwise NumberFormatException is thrown
+            Long.parseLong(uptoId);
+            if (uptoKeyParam == null) {
+                selection = DatabaseUtils.concatenateWhere(selection, PetEntry._ID + " <= ?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[] {uptoId});
+            } else {
+                String uptoKey = requireQueryParameter(uri, uptoKeyParam);
+                checkKey(orderBy, uptoKey);
+                selection = DatabaseUtils.concatenateWhere(selection, orderBy + " <= ? AND ("
+                        + orderBy + " < ? OR " + PetEntry._ID + " <= ?)");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[] {uptoKey, uptoKey, uptoId});
+            }
+        }
+
+        String limit = uri.getQueryParameter(PetEntry.QUERY_PARAM_LIMIT);
+        if (limit != null && Integer.parseInt(limit) <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive for " + uri);
+        }
+
+        sortOrder = orderBy.equals(PetEntry._ID) ? PetEntry._ID : orderBy + ", " + PetEntry._ID;
+        return database.query(table, projection, selection, selectionArgs,
+                null, null, sortOrder, limit);
+    }
+
+    /**
+     * Checks that paging key is a number if pets are sorted by weight,
+     * otherwise NumberFormatException is thrown
+     */
+    private static void checkKey(String orderBy, String key) {
+        if (orderBy.equals(PetEntry.COLUMN_PET_WEIGHT)) {
+            Long.parseLong(key);
+        }
+    }
+
+    /**
+     * Returns value of query parameter or throws exception if it is not set
+     */
+    private static String requireQueryParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + name + " parameter in " + uri);
+        }
+        return value;
+    }
+
+    /**
+     * Finds pets by words in their name or breed using full text search table.
+     * Every word of the query is matched as prefix, so "lab ret" finds "Labrador Retriever".
+     * Unless other sort order is requested, pets whose name matches all words come first and
+     * pets matched also by breed after them, newest first within each group. Full text index
+     * returns matches in docid order, so both groups stop reading at the limit instead of
+     * joining and sorting every match. If limit parameter is set only that many first pets are
+     * returned. Query without words returns no pets.
+     */
+    private Cursor searchPets(SQLiteDatabase database, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+
+        String limit = uri.getQueryParameter(PetEntry.QUERY_PARAM_LIMIT);
+        int maxCount = Integer.MAX_VALUE;
+        if (limit != null) {
+            maxCount = Integer.parseInt(limit);
+            if (maxCount <= 0) {
+                throw new IllegalArgumentException("Search limit must be positive for " + uri);
+            }
+        }
+
+        String query = uri.getLastPathSegment();
+        String[] terms = query == null ? new String[0] : query.split("[^\\p{L}\\p{N}]+");
+        StringBuilder matchQuery = new StringBuilder();
+        StringBuilder nameMatchQuery = new StringBuilder();
+        for (String term : terms) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            if (matchQuery.length() > 0) {
+                matchQuery.append(' ');
+                nameMatchQuery.append(' ');
+            }
+            matchQuery.append(term).append('*');
+            nameMatchQuery.append(PetEntry.COLUMN_PET_NAME).append(':').append(term).append('*');
+        }
+
+        if (projection == null) {
+            projection = SEARCH_COLUMNS;
+        }
+        if (matchQuery.length() == 0) {
+            return new MatrixCursor(projection, 0);
+        }
+        if (sortOrder != null) {
+            return queryMatches(database, matchQuery.toString(), projection, selection,
+                    selectionArgs, sortOrder, limit);
+        }
+
+        // Docid of every match is read with it, so pets found by name are not repeated
+        String[] docidProjection = Arrays.copyOf(projection, projection.length + 1);
+        docidProjection[projection.length] = SEARCH_DOCID;
+        String docidOrder = PetMigrations.TABLE_PETS_FTS + ".docid DESC";
+        MatrixCursor result = new MatrixCursor(projection);
+        Set<Long> docids = new HashSet<Long>();
+        Cursor nameMatches = queryMatches(database, nameMatchQuery.toString(), docidProjection,
+                selection, selectionArgs, docidOrder, limit);
+        try {
+            copyMatches(nameMatches, result, docids, maxCount);
+        } finally {
+            nameMatches.close();
+        }
+        if (result.getCount() < maxCount) {
+            Cursor allMatches = queryMatches(database, matchQuery.toString(), docidProjection,
+                    selection, selectionArgs, docidOrder,
+                    limit != null ? String.valueOf(maxCount + docids.size()) : null);
+            try {
+                copyMatches(allMatches, result, docids, maxCount);
+            } finally {
+                allMatches.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Queries pets which match full text query joined with their rows in pets table
+     */
+    private static Cursor queryMatches(SQLiteDatabase database, String matchQuery,
+                                       String[] projection, String selection,
+                                       String[] selectionArgs, String sortOrder, String limit) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(PetMigrations.TABLE_PETS_FTS + " JOIN " + PetEntry.TABLE_NAME + " ON "
+                + PetEntry.TABLE_NAME + "." + PetEntry._ID + " = "
+                + PetMigrations.TABLE_PETS_FTS + ".docid");
+        builder.setProjectionMap(sSearchProjectionMap);
+        builder.appendWhere(PetMigrations.TABLE_PETS_FTS + " MATCH ");
+        builder.appendWhereEscapeString(matchQuery);
+        return builder.query(database, projection, selection, selectionArgs, null, null, sortOrder,
+                limit);
+    }
+
+    /**
+     * Copies rows of matches whose docid, in the last column, is not in docids yet to result,
+     * until result has maxCount rows, without the docid column
+     */
+    private static void copyMatches(Cursor matches, MatrixCursor result, Set<Long> docids,
+                                    int maxCount) {
+        int docidIndex = matches.getColumnCount() - 1;
+        Object[] row = new Object[docidIndex];
+        while (result.getCount() < maxCount && matches.moveToNext()) {
+            if (!docids.add(matches.getLong(docidIndex))) {
+                continue;
+            }
+            for (int i = 0; i < row.length; i++) {
+                switch (matches.getType(i)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        row[i] = null;
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = matches.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = matches.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[i] = matches.getBlob(i);
+                        break;
+                    default:
+                        row[i] = matches.getString(i);
+                }
+            }
+            result.addRow(row);
+        }
+    }
+
+    /**
+     * Reads statistics from summary table, which has only one row per gender or breed
+     */
+    private Cursor queryStats(SQLiteDatabase database, String table,
+                              Map<String, String> projectionMap, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(table);
+        builder.setProjectionMap(projectionMap);
+        return builder.query(database, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    /**
+     * Returns change journal entries with sequence after since parameter, the whole journal if
+     * it is not set. Entries are in sequence order unless other sort order is requested.
+     */
+    private Cursor queryChanges(SQLiteDatabase database, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder) {
+
+        String since = uri.getQueryParameter(PetChangeEntry.QUERY_PARAM_SINCE);
+        if (since != null) {
+            // Sequence must be a number, otherwise NumberFormatException is thrown
+            Long.parseLong(since);
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    PetChangeEntry.COLUMN_SEQUENCE + " > ?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] {since});
+        }
+
+        String limit = uri.getQueryParameter(PetChangeEntry.QUERY_PARAM_LIMIT);
+        if (limit != null && Integer.parseInt(limit) <= 0) {
+            throw new IllegalArgumentException("Limit must be positive for " + uri);
+        }
+
+        return database.query(PetMigrations.TABLE_PET_CHANGES, projection, selection,
+                selectionArgs, null, null,
+                sortOrder != null ? sortOrder : PetChangeEntry.COLUMN_SEQUENCE, limit);
+    }
+
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) != PETS) {
+            return null;
+        }
+        List<String> types = new ArrayList<String>(sExportTypes.length);
+        for (String type : sExportTypes) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                types.add(type);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Exports all pets as CSV or NDJSON. Pets are written to a pipe on a background thread
+     * while reader reads them, page by page, so export is never held in memory.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        String[] types = getStreamTypes(uri, mimeTypeFilter);
+        if (types == null) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        ParcelFileDescriptor pipe = openPipeHelper(uri, types[0], opts, null, mExportWriter);
+        return new AssetFileDescriptor(pipe, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    private final PipeDataWriter<Object> mExportWriter = new PipeDataWriter<Object>() {
+        @Override
+        public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                    Bundle opts, Object args) {
+            Writer writer = null;
+            try {
+                writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(output.getFileDescriptor()), "UTF-8"));
+                exportPets(writer, PetEntry.CSV_TYPE.equals(mimeType));
+                writer.flush();
+            } catch (IOException e) {
+                // Reader closed its end of the pipe
+                Log.w(TAG, "Export of " + uri + " stopped", e);
+            } finally {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to close export pipe", e);
+                }
+            }
+        }
+    };
+
+    /**
+     * Writes all pets ordered by _id. Pets are read in pages by keyset on _id, so every page
+     * is short read transaction and writers are not blocked while slow reader reads the pipe.
+     */
+    private void exportPets(Writer writer, boolean csv) throws IOException {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        String[] projection = {PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT};
+        String[] selectionArgs = new String[1];
+        long lastId = 0;
+        if (csv) {
+            PetDataFormat.writeCsvHeader(writer);
+        }
+        while (true) {
+            selectionArgs[0] = String.valueOf(lastId);
+            Cursor cursor = database.query(PetEntry.TABLE_NAME, projection, PetEntry._ID + " > ?",
+                    selectionArgs, null, null, PetEntry._ID, String.valueOf(EXPORT_PAGE_SIZE));
+            try {
+                if (cursor.getCount() == 0) {
+                    return;
+                }
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    String breed = cursor.isNull(2) ? null : cursor.getString(2);
+                    if (csv) {
+                        PetDataFormat.writeCsvPet(writer, cursor.getString(1), breed,
+                                cursor.getInt(3), cursor.getInt(4));
+                    } else {
+                        PetDataFormat.writeJsonPet(writer, cursor.getString(1), breed,
+                                cursor.getInt(3), cursor.getInt(4));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
     @Nullable
     @Override
     public String getType(Uri uri) {
@@ -97,7 +796,14 @@ public class PetProvider extends ContentProvider {
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
             case PETS:
+            case PET_SEARCH:
+            case PET_SUMMARY:
                 return PetEntry.CONTENT_LIST_TYPE;
+            case PET_STATS:
+            case PET_BREED_STATS:
+                return PetStatsEntry.CONTENT_LIST_TYPE;
+            case PET_CHANGES:
+                return PetChangeEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + "with match " + match);
         }
@@ -122,55 +828,281 @@ public class PetProvider extends ContentProvider {
      */
     private Uri insertPet(Uri uri, ContentValues contentValues) {
 
+        long start = startTiming();
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Data validation
-        // Checks for name, genter and weight, no check for breed, any value is valid, even null
-        String  name = contentValues.getAsString(PetEntry.COLUMN_PET_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Pet requires a name");
+        long validationStart = startTiming();
+        PetValidator.throwIfInvalid(PetValidator.validate(contentValues, true));
+        recordTiming(PetProviderStats.VALIDATION, validationStart, 1);
+        long rowId = insertPetRow(database, uri, contentValues);
+
+        // Notify all listeners of change
+        Uri itemUri = ContentUris.withAppendedId(uri, rowId);
+        notifyChange(itemUri);
+        onPetsChanged(1);
+        recordTiming(PetProviderStats.INSERT_PETS, start, 1);
+
+        // Return new URI with rowID of newly inserted pet appended at the end
+        return itemUri;
+    }
+
+    /**
+     * Inserts all given pets in a single transaction. All rows are validated before anything
+     * is written, so either every pet is inserted or none of them is, and listeners are
+     * notified once the whole batch is committed.
+     * @return number of inserted pets
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        int match = sUriMatcher.match(uri);
+        if (match != PETS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        long start = startTiming();
+        // Data validation for all rows is done before we open transaction
+        long validationStart = startTiming();
+        PetValidator.throwIfInvalid(PetValidator.validateBatch(values));
+        recordTiming(PetProviderStats.VALIDATION, validationStart, values.length);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        List<Uri> changedUris = new ArrayList<Uri>();
+        database.beginTransactionNonExclusive();
+        long transactionStart = startTiming();
+        try {
+            for (ContentValues contentValues : values) {
+                long rowId = insertPetRow(database, uri, contentValues);
+                if (changedUris.size() <= MAX_ROW_NOTIFICATIONS) {
+                    changedUris.add(ContentUris.withAppendedId(uri, rowId));
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
+        recordTiming(PetProviderStats.TRANSACTION, transactionStart, values.length);
+
+        // Notify all listeners of change once for all inserted rows
+        notifyChanges(changedUris);
+        onPetsChanged(values.length);
+        recordTiming(PetProviderStats.BULK_INSERT_PETS, start, values.length);
+        return values.length;
+    }
 
-        Integer gender = contentValues.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-        if (gender == null || !PetEntry.isValidGender(gender)) {
-            throw new IllegalArgumentException("Pet requires valid gender type");
+    /**
+     * Inserts all pets of the batch in a single transaction, like bulkInsert(), but pets are
+     * validated and bound from primitive columns of the batch
+     * @return number of inserted pets
+     */
+    private int insertPetBatch(PetBatch batch) {
+        long start = startTiming();
+        int size = batch.size();
+        // Data validation for all rows is done before we open transaction
+        long validationStart = startTiming();
+        PetValidator.throwIfInvalid(PetValidator.validateBatch(batch));
+        recordTiming(PetProviderStats.VALIDATION, validationStart, size);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        PetStatementCache statementCache = getStatementCache(database);
+        List<Uri> changedUris = new ArrayList<Uri>();
+        database.beginTransactionNonExclusive();
+        long transactionStart = startTiming();
+        try {
+            for (int i = 0; i < size; i++) {
+                long rowId = statementCache.insert(batch.getName(i), batch.getBreed(i),
+                        batch.getGender(i), batch.getWeight(i));
+                if (rowId == -1) {
+                    Log.e(TAG, "Failed to insert pet of a batch");
+                    throw new SQLiteException("Problem while inserting pet of a batch");
+                }
+                if (changedUris.size() <= MAX_ROW_NOTIFICATIONS) {
+                    changedUris.add(ContentUris.withAppendedId(PetEntry.CONTENT_URI, rowId));
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
+        recordTiming(PetProviderStats.TRANSACTION, transactionStart, size);
 
-        Integer weight = contentValues.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-        if (weight != null && weight < 0) {
-            throw new IllegalArgumentException("Pet requires valid weight");
+        // Notify all listeners of change once for all inserted rows
+        notifyChanges(changedUris);
+        onPetsChanged(size);
+        recordTiming(PetProviderStats.INSERT_PET_BATCH, start, size);
+        return size;
+    }
+
+    /**
+     * Applies all operations in a single transaction. If any of the operations fails whole
+     * batch is rolled back. Listeners are notified after the batch is committed, about every
+     * changed pet if there are only few of them, otherwise once about all pets.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        long start = startTiming();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+        List<Uri> changedUris = new ArrayList<Uri>();
+        mBatchChanges.set(changedUris);
+        database.beginTransactionNonExclusive();
+        long transactionStart = startTiming();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mBatchChanges.remove();
         }
+        recordTiming(PetProviderStats.TRANSACTION, transactionStart, operations.size());
+
+        notifyChanges(changedUris);
+        recordTiming(PetProviderStats.APPLY_BATCH, start, operations.size());
+        return results;
+    }
 
-        long rowId = database.insert(PetEntry.TABLE_NAME, null, contentValues);
-        // If rowID is -1 then insertion failed, log error and return null
+    /**
+     * Inserts already validated pet values into pets table, without notifying listeners
+     * @return rowId of newly inserted pet
+     */
+    private long insertPetRow(SQLiteDatabase database, Uri uri, ContentValues contentValues) {
+        long rowId = getStatementCache(database).insert(contentValues);
+        // If rowID is -1 then insertion failed, log error and throw exception
         if(rowId == -1) {
             Log.e(TAG, "Failed to insert row into " + uri);
             throw new SQLiteException("Problem while inserting into uri: " + uri);
         }
+        return rowId;
+    }
 
-        // Notify all listeners of change
-        Uri itemUri = ContentUris.withAppendedId(uri, rowId);
-        getContext().getContentResolver().notifyChange(itemUri, null);
+    /**
+     * Returns start time for recordTiming(), or 0 if stats are turned off
+     */
+    private long startTiming() {
+        return mStats != null ? System.nanoTime() : 0;
+    }
 
-        // Return new URI with rowID of newly inserted pet appended at the end
-        return itemUri;
+    /**
+     * Records time since start in stats of given metric, if stats are turned on
+     */
+    private void recordTiming(int metric, long start, int rows) {
+        if (mStats != null) {
+            mStats.record(metric, start, rows);
+        }
+    }
+
+    /**
+     * Returns cache of compiled statements for given writable database. If helper has reopened
+     * database, statements compiled for the old one are released and cache is created again.
+     */
+    private synchronized PetStatementCache getStatementCache(SQLiteDatabase database) {
+        if (mStatementCache == null || mStatementCache.getDatabase() != database) {
+            if (mStatementCache != null) {
+                mStatementCache.close();
+            }
+            mStatementCache = new PetStatementCache(database);
+        }
+        return mStatementCache;
+    }
+
+    /**
+     * Notifies listeners about change on given uri, unless batch is being applied on this
+     * thread, in which case applyBatch() sends notifications when it is done
+     */
+    private void notifyChange(Uri uri) {
+        notifyChanges(Collections.singletonList(uri));
+    }
+
+    /**
+     * Notifies listeners about changes of given uris, or collects them if batch is being
+     * applied on this thread. If there are more than
+     * MAX_ROW_NOTIFICATIONS uris or some of them is pets uri, only pets uri is notified.
+     */
+    private void notifyChanges(List<Uri> uris) {
+        List<Uri> batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.addAll(uris);
+            return;
+        }
+        if (uris.isEmpty()) {
+            return;
+        }
+
+        long start = startTiming();
+        try {
+            sendNotifications(uris);
+        } finally {
+            recordTiming(PetProviderStats.NOTIFICATION, start, uris.size());
+        }
+    }
+
+    /**
+     * Invalidates cached rows of changed pets and sends notifications about them
+     */
+    private void sendNotifications(List<Uri> uris) {
+        // Changes are committed at this point, so changed pets are removed from row cache here
+        LinkedHashSet<Uri> distinctUris = new LinkedHashSet<Uri>(uris);
+        if (distinctUris.size() > MAX_ROW_NOTIFICATIONS
+                || distinctUris.contains(PetEntry.CONTENT_URI)) {
+            if (mRowCache != null) {
+                mRowCache.invalidateAll();
+            }
+            getContext().getContentResolver().notifyChange(PetEntry.CONTENT_URI, null);
+            return;
+        }
+        for (Uri uri : distinctUris) {
+            if (mRowCache != null) {
+                mRowCache.invalidate(ContentUris.parseId(uri));
+            }
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Returns uris of pets which match selection, to be notified after they are changed.
+     * If more than MAX_ROW_NOTIFICATIONS pets match, only pets uri is returned.
+     */
+    private List<Uri> queryChangedUris(SQLiteDatabase database, String selection,
+                                       String[] selectionArgs) {
+        Cursor cursor = database.query(PetEntry.TABLE_NAME, new String[] {PetEntry._ID}, selection,
+                selectionArgs, null, null, null, String.valueOf(MAX_ROW_NOTIFICATIONS + 1));
+        try {
+            if (cursor.getCount() > MAX_ROW_NOTIFICATIONS) {
+                return Collections.singletonList(PetEntry.CONTENT_URI);
+            }
+            List<Uri> uris = new ArrayList<Uri>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                uris.add(ContentUris.withAppendedId(PetEntry.CONTENT_URI, cursor.getLong(0)));
+            }
+            return uris;
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
 
+        long start = startTiming();
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
         int deleteCount;
+        int metric;
+        List<Uri> changedUris = Collections.singletonList(uri);
 
         int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                deleteCount = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                changedUris = new ArrayList<Uri>();
+                deleteCount = deletePetsInChunks(database, selection, selectionArgs, changedUris);
+                if (deleteCount > 0) {
+                    scheduleVacuum();
+                }
+                metric = PetProviderStats.DELETE_PETS;
                 break;
             case PET_ID:
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-                deleteCount = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                deleteCount = getStatementCache(database).deleteById(ContentUris.parseId(uri));
+                metric = PetProviderStats.DELETE_PET_ID;
                 break;
             default:
                 throw new IllegalArgumentException("Delete is not supported for " + uri);
@@ -178,11 +1110,152 @@ public class PetProvider extends ContentProvider {
 
         // Notify listeners for change
         if (deleteCount > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChanges(changedUris);
+            onPetsChanged(deleteCount);
         }
+        recordTiming(metric, start, deleteCount);
         return deleteCount;
     }
 
+    /**
+     * Deletes pets which match selection in transactions of at most mDeleteChunkSize pets.
+     * Write lock is released between chunks, so other writers can get in and on devices without
+     * WAL readers too, instead of waiting for whole delete. Chunks are ranges of _id, each one
+     * starts after the last pet of the previous one, so every chunk reads only its own pets
+     * instead of scanning deleted ones again. Delete of many pets is therefore not atomic,
+     * if a chunk fails pets from previous chunks stay deleted and are notified.
+     */
+    private int deletePetsInChunks(SQLiteDatabase database, String selection,
+                                   String[] selectionArgs, List<Uri> changedUris) {
+        String afterSelection = DatabaseUtils.concatenateWhere(selection, PetEntry._ID + " > ?");
+        String rangeSelection = DatabaseUtils.concatenateWhere(afterSelection,
+                PetEntry._ID + " <= ?");
+        String[] afterArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] {null});
+        String[] rangeArgs = DatabaseUtils.appendSelectionArgs(afterArgs, new String[] {null});
+        int afterIndex = afterArgs.length - 1;
+        String[] idProjection = {PetEntry._ID};
+        String chunkLimit = String.valueOf(mDeleteChunkSize);
+        long lastId = 0;
+        int deleteCount = 0;
+        int chunkCount;
+        boolean firstChunk = true;
+        try {
+            do {
+                database.beginTransactionNonExclusive();
+                long transactionStart = startTiming();
+                try {
+                    // Find out which pets will be deleted in same transaction as first chunk
+                    if (firstChunk) {
+                        changedUris.addAll(queryChangedUris(database, selection, selectionArgs));
+                        firstChunk = false;
+                    }
+                    // Last pet of the chunk ends its _id range
+                    afterArgs[afterIndex] = String.valueOf(lastId);
+                    long uptoId = lastId;
+                    Cursor cursor = database.query(PetEntry.TABLE_NAME, idProjection,
+                            afterSelection, afterArgs, null, null, PetEntry._ID, chunkLimit);
+                    try {
+                        chunkCount = cursor.getCount();
+                        if (cursor.moveToLast()) {
+                            uptoId = cursor.getLong(0);
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    if (chunkCount > 0) {
+                        rangeArgs[afterIndex] = String.valueOf(lastId);
+                        rangeArgs[afterIndex + 1] = String.valueOf(uptoId);
+                        chunkCount = database.delete(PetEntry.TABLE_NAME, rangeSelection,
+                                rangeArgs);
+                        lastId = uptoId;
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                recordTiming(PetProviderStats.TRANSACTION, transactionStart, chunkCount);
+                deleteCount += chunkCount;
+            } while (chunkCount == mDeleteChunkSize);
+        } catch (RuntimeException e) {
+            if (deleteCount > 0) {
+                notifyChanges(changedUris);
+            }
+            throw e;
+        }
+        return deleteCount;
+    }
+
+    /**
+     * Returns free pages of database to file system on background thread, few pages at a time.
+     * If vacuum is already scheduled, it will also free pages of this delete. Database which
+     * is not in incremental auto vacuum mode is left as it is, it is switched to that mode
+     * only when user compacts it.
+     */
+    private void scheduleVacuum() {
+        if (!mVacuumScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        mVacuumExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mVacuumScheduled.set(false);
+                try {
+                    SQLiteDatabase database = mDbHelper.getWritableDatabase();
+                    if (mDbHelper.isIncrementalVacuum(database)) {
+                        mDbHelper.vacuumIncrementally(database, mVacuumStepPages);
+                    }
+                } catch (SQLiteException e) {
+                    Log.w(TAG, "Incremental vacuum failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Switches database to incremental auto vacuum if it is not in that mode yet and returns
+     * all its free pages to file system. Runs on the calling thread, switch of big database
+     * rewrites it and blocks writers until it is done.
+     * @return false if database couldn't be switched, because there is not enough free space
+     */
+    private boolean compactDatabase() {
+        long start = startTiming();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        boolean compacted = mDbHelper.enableIncrementalVacuum(database);
+        if (compacted) {
+            mDbHelper.vacuumIncrementally(database, mVacuumStepPages);
+        }
+        recordTiming(PetProviderStats.COMPACT_DATABASE, start, 0);
+        return compacted;
+    }
+
+    /**
+     * Counts pets changed by a write and compacts change journal on background thread once
+     * mJournalCompactInterval pets were changed since last compaction was scheduled
+     */
+    private void onPetsChanged(int count) {
+        if (mJournalChanges.addAndGet(count) < mJournalCompactInterval) {
+            return;
+        }
+        mJournalChanges.set(0);
+        if (!mJournalCompactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        mVacuumExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mJournalCompactionScheduled.set(false);
+                long start = startTiming();
+                try {
+                    int dropped = mDbHelper.compactChangeJournal(mDbHelper.getWritableDatabase(),
+                            mJournalSize);
+                    recordTiming(PetProviderStats.JOURNAL_COMPACTION, start, dropped);
+                } catch (SQLiteException e) {
+                    Log.w(TAG, "Change journal compaction failed", e);
+                }
+            }
+        });
+    }
+
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
 
@@ -192,9 +1265,8 @@ public class PetProvider extends ContentProvider {
             case PETS:
                 return updatePet(uri, contentValues, selection, selectionArgs);
             case PET_ID:
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                // Pet is updated by id from uri with compiled statement, selection is not used
+                return updatePet(uri, contentValues, null, null);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -205,40 +1277,46 @@ public class PetProvider extends ContentProvider {
      */
     private int updatePet (Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
 
+        long start = startTiming();
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Data validation
-        // Checks for name, genter and weight, no check for breed, any value is valid, even null
-        // First we check if some key is present in contentValues
-        if (contentValues.containsKey(PetEntry.COLUMN_PET_NAME)) {
-            String  name = contentValues.getAsString(PetEntry.COLUMN_PET_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Pet requires a name");
-            }
-        }
-
-        if (contentValues.containsKey(PetEntry.COLUMN_PET_GENDER)) {
-            Integer gender = contentValues.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-            if (gender == null || !PetEntry.isValidGender(gender)) {
-                throw new IllegalArgumentException("Pet requires valid gender type");
-            }
-        }
+        long validationStart = startTiming();
+        // Only changed columns are validated
+        PetValidator.throwIfInvalid(PetValidator.validate(contentValues, false));
+        recordTiming(PetProviderStats.VALIDATION, validationStart, 1);
 
-        if (contentValues.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
-            Integer weight = contentValues.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-            if (weight != null && weight < 0) {
-                throw new IllegalArgumentException("Pet requires valid weight");
+        int updatedRowsNum;
+        int metric;
+        List<Uri> changedUris = Collections.singletonList(uri);
+        if (sUriMatcher.match(uri) == PET_ID) {
+            updatedRowsNum = getStatementCache(database).updateById(ContentUris.parseId(uri),
+                    contentValues);
+            metric = PetProviderStats.UPDATE_PET_ID;
+        } else {
+            // Find out which pets will be updated in same transaction as update itself
+            database.beginTransactionNonExclusive();
+            long transactionStart = startTiming();
+            try {
+                changedUris = queryChangedUris(database, selection, selectionArgs);
+                updatedRowsNum = database.update(PetEntry.TABLE_NAME, contentValues, selection,
+                        selectionArgs);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
             }
+            recordTiming(PetProviderStats.TRANSACTION, transactionStart, updatedRowsNum);
+            metric = PetProviderStats.UPDATE_PETS;
         }
 
-        int updatedRowsNum = database.update(PetEntry.TABLE_NAME, contentValues, selection, selectionArgs);
-
         // If updatedRowsNum is greater then 0, return it, otherwise return 0 and log error
         if(updatedRowsNum > 0) {
             // Notify all listeners for change
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChanges(changedUris);
+            onPetsChanged(updatedRowsNum);
+        } else {
+            Log.e(TAG, "Failed to update values for " + uri);
         }
-        Log.e(TAG, "Failed to update values for " + uri);
+        recordTiming(metric, start, updatedRowsNum);
         return updatedRowsNum;
     }
 }
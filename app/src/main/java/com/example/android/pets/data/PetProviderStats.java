@@ -0,0 +1,157 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms of PetProvider operations, one for every operation and uri match and
+ * for validation, transactions and notifications inside of them.
+ * Recording is lock free and doesn't allocate, it only increments few atomic counters,
+ * so stats can stay turned on in release builds.
+ */
+final class PetProviderStats {
+
+    // Recorded metrics, index into NAMES
+    static final int QUERY_PETS = 0;
+    static final int QUERY_PET_ID = 1;
+    static final int QUERY_PET_SEARCH = 2;
+    static final int INSERT_PETS = 3;
+    static final int BULK_INSERT_PETS = 4;
+    static final int UPDATE_PETS = 5;
+    static final int UPDATE_PET_ID = 6;
+    static final int DELETE_PETS = 7;
+    static final int DELETE_PET_ID = 8;
+    static final int APPLY_BATCH = 9;
+    static final int VALIDATION = 10;
+    // Time from begin of write transaction to its end, without waiting for the write lock
+    static final int TRANSACTION = 11;
+    static final int NOTIFICATION = 12;
+    static final int QUERY_PET_STATS = 13;
+    static final int QUERY_PET_SUMMARY = 14;
+    static final int INSERT_PET_BATCH = 15;
+    static final int QUERY_PET_CHANGES = 16;
+    static final int JOURNAL_COMPACTION = 17;
+    static final int COMPACT_DATABASE = 18;
+
+    // Names of metrics, used as keys of the stats bundle
+    private static final String[] NAMES = {"query_pets", "query_pet_id", "query_pet_search",
+            "insert_pets", "bulk_insert_pets", "update_pets", "update_pet_id", "delete_pets",
+            "delete_pet_id", "apply_batch", "validation", "transaction", "notification",
+            "query_pet_stats", "query_pet_summary", "insert_pet_batch",
+            "query_pet_changes", "journal_compaction", "compact_database"};
+
+    // Bucket i counts operations which took less than 2^i microseconds, last one counts the rest
+    private static final int BUCKET_COUNT = 32;
+
+    private final Histogram[] mHistograms = new Histogram[NAMES.length];
+
+    PetProviderStats() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Records operation which started at given System.nanoTime() and ended now
+     * @param rows number of rows returned or affected by the operation
+     */
+    void record(int metric, long startNanos, int rows) {
+        mHistograms[metric].record(System.nanoTime() - startNanos, rows);
+    }
+
+    /**
+     * Returns bundle with a bundle of every metric which was recorded at least once, under its name
+     */
+    Bundle toBundle() {
+        Bundle stats = new Bundle();
+        for (int i = 0; i < mHistograms.length; i++) {
+            Bundle histogram = mHistograms[i].toBundle();
+            if (histogram != null) {
+                stats.putBundle(NAMES[i], histogram);
+            }
+        }
+        return stats;
+    }
+
+    void reset() {
+        for (Histogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    private static final class Histogram {
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mMaxNanos = new AtomicLong();
+        private final AtomicLong mRows = new AtomicLong();
+
+        void record(long nanos, int rows) {
+            long micros = nanos / 1000;
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            mBuckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+            mCount.incrementAndGet();
+            mTotalNanos.addAndGet(nanos);
+            mRows.addAndGet(rows);
+            long max = mMaxNanos.get();
+            while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+                max = mMaxNanos.get();
+            }
+        }
+
+        /**
+         * Returns counters of this histogram or null if nothing was recorded.
+         * Counters are read one by one while other threads may record, so they can be off
+         * by few operations, which doesn't matter for stats.
+         */
+        Bundle toBundle() {
+            long[] buckets = new long[BUCKET_COUNT];
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = mBuckets.get(i);
+                count += buckets[i];
+            }
+            if (count == 0) {
+                return null;
+            }
+
+            Bundle bundle = new Bundle();
+            bundle.putLong(PetContract.KEY_STATS_COUNT, mCount.get());
+            bundle.putLong(PetContract.KEY_STATS_ROWS, mRows.get());
+            bundle.putLong(PetContract.KEY_STATS_TOTAL_MICROS, mTotalNanos.get() / 1000);
+            bundle.putLong(PetContract.KEY_STATS_MAX_MICROS, mMaxNanos.get() / 1000);
+            bundle.putLong(PetContract.KEY_STATS_P50_MICROS, percentile(buckets, count, 50));
+            bundle.putLong(PetContract.KEY_STATS_P99_MICROS, percentile(buckets, count, 99));
+            bundle.putLongArray(PetContract.KEY_STATS_BUCKETS, buckets);
+            return bundle;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mTotalNanos.set(0);
+            mMaxNanos.set(0);
+            mRows.set(0);
+        }
+
+        /**
+         * Returns upper bound in microseconds of the bucket which holds given percentile
+         */
+        private static long percentile(long[] buckets, long count, int percent) {
+            long rank = (count * percent + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (buckets.length - 1);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Bounded LRU cache of recently read pet rows, keyed by pet id.
+ * Every invalidation increments generation of the cache. Row read from database is put into
+ * the cache only if generation hasn't changed since the read started, so a read which races
+ * with a write can't put stale row back into the cache after it was invalidated.
+ */
+final class PetRowCache {
+
+    // All columns of pets table, cached rows hold values in this order
+    static final String[] COLUMNS = {PetEntry._ID, PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT};
+
+    private final LruCache<Long, Object[]> mRows;
+    private long mGeneration;
+    private long mHits;
+    private long mMisses;
+
+    PetRowCache(int maxRows) {
+        mRows = new LruCache<Long, Object[]>(maxRows);
+    }
+
+    /**
+     * Returns cached row of pet with given id, or null if it is not cached
+     */
+    synchronized Object[] get(long id) {
+        Object[] row = mRows.get(id);
+        if (row == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return row;
+    }
+
+    /**
+     * Returns current generation, must be read before row is read from database
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Caches row read from database, unless cache was invalidated after given generation
+     */
+    synchronized void put(long id, Object[] row, long generation) {
+        if (generation == mGeneration) {
+            mRows.put(id, row);
+        }
+    }
+
+    /**
+     * Removes pet with given id from the cache
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Removes all pets from the cache
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    synchronized long getHits() {
+        return mHits;
+    }
+
+    synchronized long getMisses() {
+        return mMisses;
+    }
+
+    synchronized int size() {
+        return mRows.size();
+    }
+
+    int maxSize() {
+        return mRows.maxSize();
+    }
+
+    /**
+     * Checks if cursor with given projection can be built from cached row,
+     * projection can have only columns of pets table
+     */
+    static boolean canProject(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (columnIndex(column) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads row from cursor which is positioned on a row and has all COLUMNS in their order
+     */
+    static Object[] readRow(Cursor cursor) {
+        return new Object[] {
+                cursor.getLong(0),
+                cursor.getString(1),
+                cursor.isNull(2) ? null : cursor.getString(2),
+                cursor.getLong(3),
+                cursor.getLong(4)};
+    }
+
+    /**
+     * Builds cursor with given projection, all columns if it is null, from cached row.
+     * If row is null returned cursor is empty.
+     */
+    static Cursor toCursor(Object[] row, String[] projection) {
+        String[] columns = projection == null ? COLUMNS : projection;
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        if (row != null) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = row[columnIndex(columns[i])];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    private static int columnIndex(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
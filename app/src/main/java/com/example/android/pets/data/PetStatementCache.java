@@ -0,0 +1,244 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of compiled statements for single row insert, update by id and delete by id of pets.
+ * SQLiteDatabase.insert(), update() and delete() build and compile SQL on every call, here
+ * each statement is compiled once per set of columns and only values are bound on next calls.
+ * Compiled statement holds its bound values, so a thread takes it out of the cache, executes it
+ * and puts it back. Lock of the cache is held only while statement is taken or put back, never
+ * while it executes, because executing thread may wait for database connection which is held
+ * by a transaction that is itself waiting for the cache.
+ */
+final class PetStatementCache {
+
+    // Columns which can be written, other columns are not cached and use database methods
+    private static final String[] COLUMNS = {PetEntry._ID, PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT};
+    // Mask of all columns except _id, written by inserts of pet batches
+    private static final int PET_COLUMNS = ((1 << COLUMNS.length) - 1) & ~1;
+
+    // Keys of statements, insert statements are keyed by bit mask of columns they write,
+    // update statements by the mask with UPDATE bit and there is one delete statement
+    private static final int UPDATE = 1 << COLUMNS.length;
+    private static final int DELETE = 2 << COLUMNS.length;
+
+    private final SQLiteDatabase mDatabase;
+    // Statements which are not executing right now
+    private final Map<Integer, SQLiteStatement> mStatements = new HashMap<Integer, SQLiteStatement>();
+    private boolean mClosed;
+
+    PetStatementCache(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    SQLiteDatabase getDatabase() {
+        return mDatabase;
+    }
+
+    /**
+     * Inserts pet with given values
+     * @return rowId of newly inserted pet or -1 if insert failed
+     */
+    long insert(ContentValues values) {
+        int columns = columnMask(values);
+        if (columns <= 0) {
+            return mDatabase.insert(PetEntry.TABLE_NAME, null, values);
+        }
+
+        SQLiteStatement statement = acquireInsert(columns);
+        try {
+            bindValues(statement, values, columns);
+            return statement.executeInsert();
+        } finally {
+            release(columns, statement);
+        }
+    }
+
+    /**
+     * Inserts pet with given values of all columns, bound without boxing
+     * @return rowId of newly inserted pet or -1 if insert failed
+     */
+    long insert(String name, String breed, int gender, int weight) {
+        SQLiteStatement statement = acquireInsert(PET_COLUMNS);
+        try {
+            // Parameters are in order of COLUMNS
+            statement.bindString(1, name);
+            if (breed == null) {
+                statement.bindNull(2);
+            } else {
+                statement.bindString(2, breed);
+            }
+            statement.bindLong(3, gender);
+            statement.bindLong(4, weight);
+            return statement.executeInsert();
+        } finally {
+            release(PET_COLUMNS, statement);
+        }
+    }
+
+    /**
+     * Updates pet with given id to given values
+     * @return number of updated rows
+     */
+    int updateById(long id, ContentValues values) {
+        int columns = columnMask(values);
+        if (columns <= 0) {
+            return mDatabase.update(PetEntry.TABLE_NAME, values, PetEntry._ID + "=?",
+                    new String[] {String.valueOf(id)});
+        }
+
+        SQLiteStatement statement = acquire(UPDATE | columns);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder("UPDATE " + PetEntry.TABLE_NAME + " SET ");
+            boolean first = true;
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if ((columns & (1 << i)) != 0) {
+                    if (!first) {
+                        sql.append(", ");
+                    }
+                    sql.append(COLUMNS[i]).append("=?");
+                    first = false;
+                }
+            }
+            sql.append(" WHERE ").append(PetEntry._ID).append("=?");
+            statement = mDatabase.compileStatement(sql.toString());
+        }
+
+        try {
+            int index = bindValues(statement, values, columns);
+            statement.bindLong(index, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(UPDATE | columns, statement);
+        }
+    }
+
+    /**
+     * Deletes pet with given id
+     * @return number of deleted rows
+     */
+    int deleteById(long id) {
+        SQLiteStatement statement = acquire(DELETE);
+        if (statement == null) {
+            statement = mDatabase.compileStatement("DELETE FROM " + PetEntry.TABLE_NAME
+                    + " WHERE " + PetEntry._ID + "=?");
+        }
+        try {
+            statement.bindLong(1, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            release(DELETE, statement);
+        }
+    }
+
+    /**
+     * Releases all compiled statements, statements which are executing right now are released
+     * when they finish
+     */
+    void close() {
+        List<SQLiteStatement> statements;
+        synchronized (this) {
+            mClosed = true;
+            statements = new ArrayList<SQLiteStatement>(mStatements.values());
+            mStatements.clear();
+        }
+        for (SQLiteStatement statement : statements) {
+            statement.close();
+        }
+    }
+
+    /**
+     * Takes insert statement of given columns out of the cache, or compiles it
+     */
+    private SQLiteStatement acquireInsert(int columns) {
+        SQLiteStatement statement = acquire(columns);
+        if (statement != null) {
+            return statement;
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO " + PetEntry.TABLE_NAME + " (");
+        StringBuilder params = new StringBuilder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if ((columns & (1 << i)) != 0) {
+                if (params.length() > 0) {
+                    sql.append(", ");
+                    params.append(", ");
+                }
+                sql.append(COLUMNS[i]);
+                params.append('?');
+            }
+        }
+        sql.append(") VALUES (").append(params).append(')');
+        return mDatabase.compileStatement(sql.toString());
+    }
+
+    /**
+     * Takes statement with given key out of the cache, so no other thread uses it
+     * @return the statement or null if it is not cached or is used by another thread
+     */
+    private synchronized SQLiteStatement acquire(int key) {
+        return mStatements.remove(key);
+    }
+
+    /**
+     * Puts executed statement back into the cache. If another thread already put back
+     * statement with same key or cache is closed, the statement is closed instead.
+     */
+    private void release(int key, SQLiteStatement statement) {
+        statement.clearBindings();
+        synchronized (this) {
+            if (!mClosed && !mStatements.containsKey(key)) {
+                mStatements.put(key, statement);
+                return;
+            }
+        }
+        statement.close();
+    }
+
+    /**
+     * Returns bit mask of known columns present in values, 0 if values are empty
+     * or -1 if there is some unknown column
+     */
+    private static int columnMask(ContentValues values) {
+        int mask = 0;
+        for (String key : values.keySet()) {
+            int index = -1;
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (COLUMNS[i].equals(key)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return -1;
+            }
+            mask |= 1 << index;
+        }
+        return mask;
+    }
+
+    /**
+     * Binds values of columns in the mask to statement, in order of COLUMNS
+     * @return index of the next parameter of statement
+     */
+    private static int bindValues(SQLiteStatement statement, ContentValues values, int columns) {
+        int index = 1;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if ((columns & (1 << i)) != 0) {
+                DatabaseUtils.bindObjectToProgram(statement, index++, values.get(COLUMNS[i]));
+            }
+        }
+        return index;
+    }
+}
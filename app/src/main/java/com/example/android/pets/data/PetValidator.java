@@ -0,0 +1,233 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Validates pet values against rules of pets table columns, see {@link PetEntry}, which follow
+ * the table schema: required columns are NOT NULL ones without a default. Same rules
+ * are used by PetProvider before it writes and by the app before it calls the provider, so
+ * invalid input is rejected without a provider call. Every rule of every pet is checked,
+ * so all violations are reported at once instead of the first one.
+ */
+public final class PetValidator {
+
+    /**
+     * One value which breaks a rule
+     */
+    public static final class Violation {
+
+        private final int mRow;
+        private final String mColumn;
+        private final String mMessage;
+
+        Violation(int row, String column, String message) {
+            mRow = row;
+            mColumn = column;
+            mMessage = message;
+        }
+
+        /**
+         * Returns index of the pet in validated batch, 0 for a single pet
+         */
+        public int getRow() {
+            return mRow;
+        }
+
+        /**
+         * Returns column of the invalid value
+         */
+        public String getColumn() {
+            return mColumn;
+        }
+
+        public String getMessage() {
+            return mMessage;
+        }
+
+        @Override
+        public String toString() {
+            return "Pet " + mRow + ": " + mMessage;
+        }
+    }
+
+    /**
+     * Rule of one column. Value can be missing only if column is optional for new pets
+     * and it can be null only if column is nullable.
+     */
+    private abstract static class Rule {
+
+        final String column;
+        final boolean requiredForNew;
+        final boolean nullable;
+        final String message;
+
+        Rule(String column, boolean requiredForNew, boolean nullable, String message) {
+            this.column = column;
+            this.requiredForNew = requiredForNew;
+            this.nullable = nullable;
+            this.message = message;
+        }
+
+        /**
+         * Checks value which is not null
+         */
+        abstract boolean isValid(Object value);
+    }
+
+    /**
+     * Rule of an integer column, value can be given as a number or as its text
+     */
+    private abstract static class IntRule extends Rule {
+
+        IntRule(String column, boolean requiredForNew, boolean nullable, String message) {
+            super(column, requiredForNew, nullable, message);
+        }
+
+        @Override
+        boolean isValid(Object value) {
+            if (value instanceof Integer || value instanceof Long || value instanceof Short
+                    || value instanceof Byte) {
+                long number = ((Number) value).longValue();
+                return number == (int) number && isValid((int) number);
+            }
+            if (value instanceof String) {
+                try {
+                    return isValid(Integer.parseInt(((String) value).trim()));
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        abstract boolean isValid(int value);
+    }
+
+    // Name is required and it can't be blank
+    private static final Rule NAME_RULE = new Rule(PetEntry.COLUMN_PET_NAME, true, false,
+            "Pet requires a name") {
+        @Override
+        boolean isValid(Object value) {
+            return isValidName(value.toString());
+        }
+    };
+
+    // Any breed is valid, even null
+    private static final Rule BREED_RULE = new Rule(PetEntry.COLUMN_PET_BREED, false, true,
+            null) {
+        @Override
+        boolean isValid(Object value) {
+            return true;
+        }
+    };
+
+    private static final IntRule GENDER_RULE = new IntRule(PetEntry.COLUMN_PET_GENDER, true,
+            false, "Pet requires valid gender type") {
+        @Override
+        boolean isValid(int value) {
+            return PetEntry.isValidGender(value);
+        }
+    };
+
+    // Weight of a new pet defaults to 0, but column is not null
+    private static final IntRule WEIGHT_RULE = new IntRule(PetEntry.COLUMN_PET_WEIGHT, false,
+            false, "Pet requires valid weight") {
+        @Override
+        boolean isValid(int value) {
+            return value >= 0;
+        }
+    };
+
+    private static final Rule[] RULES = {NAME_RULE, BREED_RULE, GENDER_RULE, WEIGHT_RULE};
+
+    // Private constructor to prevent accidental instantiation
+    private PetValidator() {}
+
+    /**
+     * Checks values of a new pet, or changed values of an existing pet
+     * @param isNew true if values are inserted, so all required columns must be present
+     * @return violations, empty if values are valid
+     */
+    public static List<Violation> validate(ContentValues values, boolean isNew) {
+        List<Violation> violations = new ArrayList<Violation>();
+        validate(0, values, isNew, violations);
+        return violations.isEmpty() ? Collections.<Violation>emptyList() : violations;
+    }
+
+    /**
+     * Checks values of all new pets in a single pass
+     * @return violations of all pets, empty if every pet is valid
+     */
+    public static List<Violation> validateBatch(ContentValues[] values) {
+        List<Violation> violations = new ArrayList<Violation>();
+        for (int i = 0; i < values.length; i++) {
+            validate(i, values[i], true, violations);
+        }
+        return violations.isEmpty() ? Collections.<Violation>emptyList() : violations;
+    }
+
+    /**
+     * Checks all pets of a batch, values are read from its primitive columns without boxing
+     * @return violations of all pets, empty if every pet is valid
+     */
+    public static List<Violation> validateBatch(PetBatch batch) {
+        List<Violation> violations = new ArrayList<Violation>();
+        for (int i = 0; i < batch.size(); i++) {
+            String name = batch.getName(i);
+            if (name == null || !isValidName(name)) {
+                violations.add(new Violation(i, NAME_RULE.column, NAME_RULE.message));
+            }
+            if (!GENDER_RULE.isValid(batch.getGender(i))) {
+                violations.add(new Violation(i, GENDER_RULE.column, GENDER_RULE.message));
+            }
+            if (!WEIGHT_RULE.isValid(batch.getWeight(i))) {
+                violations.add(new Violation(i, WEIGHT_RULE.column, WEIGHT_RULE.message));
+            }
+        }
+        return violations.isEmpty() ? Collections.<Violation>emptyList() : violations;
+    }
+
+    /**
+     * Throws exception which lists all violations, if there are some
+     * @throws IllegalArgumentException if violations are not empty
+     */
+    static void throwIfInvalid(List<Violation> violations) {
+        if (violations.isEmpty()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder();
+        for (Violation violation : violations) {
+            if (message.length() > 0) {
+                message.append("; ");
+            }
+            message.append(violation);
+        }
+        throw new IllegalArgumentException(message.toString());
+    }
+
+    private static void validate(int row, ContentValues values, boolean isNew,
+                                 List<Violation> violations) {
+        for (Rule rule : RULES) {
+            boolean valid;
+            if (!values.containsKey(rule.column)) {
+                valid = !isNew || !rule.requiredForNew;
+            } else {
+                Object value = values.get(rule.column);
+                valid = value == null ? rule.nullable : rule.isValid(value);
+            }
+            if (!valid) {
+                violations.add(new Violation(row, rule.column, rule.message));
+            }
+        }
+    }
+
+    private static boolean isValidName(String name) {
+        return !name.trim().isEmpty();
+    }
+}